@@ -0,0 +1,232 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.VolatileImage;
+import javax.swing.JComponent;
+
+/**
+ * Keeps the visible part of a component in a VolatileImage.
+ * When the component gets painted, only the parts that were invalidated are
+ * drawn again, and the rest is copied from the VolatileImage, which can be
+ * stored in video memory. When scrolling, the content that stays visible is
+ * moved in the image.
+ * If the content of the image is lost, it is drawn again, and if the image
+ * can't be accelerated the component is drawn directly, as when the buffer is
+ * disabled.
+ * @author mibi88
+ */
+public class AcceleratedBuffer {
+    private static final int MAX_ATTEMPTS = 3;
+    private JComponent component;
+    private RenderEvent event;
+    private boolean enabled;
+    private boolean supported;
+    private VolatileImage image;
+    // The part of the component that is in the image.
+    private Rectangle bounds;
+    // The part of the image that needs to be drawn again, in the coordinates
+    // of the component, empty when its width is 0.
+    private Rectangle dirty;
+    
+    /**
+     * Create a buffer for a component.
+     * The buffer is disabled by default.
+     * @param component The component to draw.
+     * @param event The event handler that draws the content of the
+     * component.
+     */
+    public AcceleratedBuffer(JComponent component, RenderEvent event) {
+        this.component = component;
+        this.event = event;
+        enabled = false;
+        supported = true;
+        bounds = new Rectangle();
+        dirty = new Rectangle();
+    }
+    
+    /**
+     * Enable or disable the buffer.
+     * @param enabled True if the content should be drawn in the buffer.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        // Try again to create an accelerated image.
+        supported = true;
+        if(!enabled){
+            flush();
+        }
+    }
+    
+    /**
+     * Check if the buffer is enabled.
+     * @return True if the buffer is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Check if the content is currently drawn from an accelerated image.
+     * @return True if the last paint used the VolatileImage.
+     */
+    public boolean isAccelerated() {
+        return enabled && supported && image != null;
+    }
+    
+    /**
+     * Mark a part of the component as modified.
+     * @param x The position of the modified area.
+     * @param y The position of the modified area.
+     * @param w The width of the modified area.
+     * @param h The height of the modified area.
+     */
+    public void invalidate(int x, int y, int w, int h) {
+        if(w <= 0 || h <= 0){
+            return;
+        }
+        if(dirty.width == 0){
+            dirty.setBounds(x, y, w, h);
+        }else{
+            dirty.add(new Rectangle(x, y, w, h));
+        }
+    }
+    
+    /**
+     * Free the VolatileImage.
+     */
+    public void flush() {
+        if(image != null){
+            image.flush();
+            image = null;
+        }
+    }
+    
+    /**
+     * Paint the part of the component that is in the clip of g.
+     * @param g The graphics of the component.
+     */
+    public void paint(Graphics g) {
+        if(enabled && supported){
+            for(int i=0;i<MAX_ATTEMPTS;i++){
+                if(!validate()){
+                    break;
+                }
+                update();
+                Rectangle clip = g.getClipBounds();
+                if(clip == null){
+                    clip = bounds;
+                }
+                g.drawImage(image, clip.x, clip.y, clip.x+clip.width,
+                        clip.y+clip.height, clip.x-bounds.x,
+                        clip.y-bounds.y, clip.x-bounds.x+clip.width,
+                        clip.y-bounds.y+clip.height, null);
+                if(!image.contentsLost()){
+                    return;
+                }
+                dirty.setBounds(bounds);
+            }
+        }
+        event.render(g);
+    }
+    
+    private boolean validate() {
+        Rectangle visible = component.getVisibleRect();
+        GraphicsConfiguration gc = component.getGraphicsConfiguration();
+        if(gc == null || visible.isEmpty()){
+            return false;
+        }
+        if(image == null || image.getWidth() != visible.width
+                || image.getHeight() != visible.height){
+            flush();
+            image = gc.createCompatibleVolatileImage(visible.width,
+                    visible.height);
+            if(image == null || !image.getCapabilities().isAccelerated()){
+                // Drawing in a software VolatileImage is only slower.
+                flush();
+                supported = false;
+                return false;
+            }
+            bounds.setBounds(visible);
+            dirty.setBounds(visible);
+        }
+        int status = image.validate(gc);
+        if(status == VolatileImage.IMAGE_INCOMPATIBLE){
+            flush();
+            return validate();
+        }
+        if(status == VolatileImage.IMAGE_RESTORED){
+            dirty.setBounds(visible);
+        }
+        if(!bounds.getLocation().equals(visible.getLocation())){
+            scroll(visible);
+        }
+        return true;
+    }
+    
+    private void scroll(Rectangle visible) {
+        Rectangle kept = bounds.intersection(visible);
+        if(kept.isEmpty() || dirty.contains(kept)){
+            dirty.setBounds(visible);
+        }else{
+            // Move the content that stays visible and only draw the content
+            // that appeared again.
+            Graphics2D g = image.createGraphics();
+            g.copyArea(kept.x-bounds.x, kept.y-bounds.y, kept.width,
+                    kept.height, bounds.x-visible.x, bounds.y-visible.y);
+            g.dispose();
+            if(kept.x > visible.x){
+                invalidate(visible.x, visible.y, kept.x-visible.x,
+                        visible.height);
+            }
+            if(kept.x+kept.width < visible.x+visible.width){
+                invalidate(kept.x+kept.width, visible.y,
+                        visible.x+visible.width-kept.x-kept.width,
+                        visible.height);
+            }
+            if(kept.y > visible.y){
+                invalidate(visible.x, visible.y, visible.width,
+                        kept.y-visible.y);
+            }
+            if(kept.y+kept.height < visible.y+visible.height){
+                invalidate(visible.x, kept.y+kept.height, visible.width,
+                        visible.y+visible.height-kept.y-kept.height);
+            }
+        }
+        bounds.setLocation(visible.getLocation());
+    }
+    
+    private void update() {
+        Rectangle area = dirty.intersection(bounds);
+        dirty.setBounds(0, 0, 0, 0);
+        if(area.isEmpty()){
+            return;
+        }
+        Graphics2D g = image.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        g.setClip(area);
+        g.setColor(component.getBackground());
+        g.fillRect(area.x, area.y, area.width, area.height);
+        event.render(g);
+        g.dispose();
+    }
+}
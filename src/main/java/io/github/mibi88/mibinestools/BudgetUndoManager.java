@@ -0,0 +1,142 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * An undo manager that limits the memory used by its edits instead of their
+ * number. When the edits use more than the budget, the oldest ones are
+ * removed. The last edit is always kept, even if it is bigger than the
+ * budget. The edits that aren't SizedEdits are considered to use no memory.
+ * The memory used by the edits is updated when edits are added or removed,
+ * so the edits never have to be counted again.
+ * @author mibi88
+ */
+public class BudgetUndoManager extends UndoManager {
+    /**
+     * The default budget, 16 MiB.
+     */
+    public static final long DEFAULT_BUDGET = 16*1024*1024;
+    
+    private long budget;
+    private long size;
+    
+    /**
+     * Create an undo manager with the default budget.
+     */
+    public BudgetUndoManager() {
+        this(DEFAULT_BUDGET);
+    }
+    
+    /**
+     * Create an undo manager.
+     * @param budget The maximum memory used by the edits, in bytes.
+     */
+    public BudgetUndoManager(long budget) {
+        super();
+        this.budget = budget;
+        // The budget replaces the limit on the number of edits.
+        setLimit(-1);
+    }
+    
+    /**
+     * Add an edit, and remove the oldest edits if they use too much memory.
+     * @param edit The edit to add.
+     * @return True if the edit was added.
+     */
+    @Override
+    public synchronized boolean addEdit(UndoableEdit edit) {
+        boolean added = super.addEdit(edit);
+        // The edit may have been absorbed by the last edit instead.
+        if(added && !edits.isEmpty() && edits.lastElement() == edit){
+            size += getSize(edit);
+        }
+        trimForBudget();
+        return added;
+    }
+    
+    /**
+     * Set the maximum memory used by the edits.
+     * @param budget The budget in bytes.
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        trimForBudget();
+    }
+    
+    /**
+     * Get the maximum memory used by the edits.
+     * @return The budget in bytes.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+    
+    /**
+     * Get the memory used by the edits.
+     * @return The size in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    /**
+     * Remove all the edits.
+     */
+    @Override
+    public synchronized void discardAllEdits() {
+        super.discardAllEdits();
+        size = 0;
+    }
+    
+    /**
+     * Remove some edits.
+     * All the edits are removed through it, so it keeps the memory used by
+     * the edits up to date.
+     * @param from The index of the first edit to remove.
+     * @param to The index of the last edit to remove.
+     */
+    @Override
+    protected void trimEdits(int from, int to) {
+        for(int i=from;i<=to;i++){
+            size -= getSize(edits.get(i));
+        }
+        super.trimEdits(from, to);
+    }
+    
+    private static long getSize(UndoableEdit edit) {
+        if(edit instanceof SizedEdit){
+            return ((SizedEdit)edit).getSize();
+        }
+        return 0;
+    }
+    
+    private void trimForBudget() {
+        long remaining = size;
+        int count = 0;
+        while(remaining > budget && edits.size()-count > 1){
+            remaining -= getSize(edits.get(count));
+            count++;
+        }
+        if(count > 0){
+            trimEdits(0, count-1);
+        }
+    }
+}
@@ -162,6 +162,22 @@ public abstract class Editor extends JPanel {
         return;
     }
     
+    /**
+     * Sets if the content should be drawn in accelerated buffers.
+     * @param accelerated True if the content should be accelerated
+     */
+    public void setAccelerated(boolean accelerated) {
+        return;
+    }
+    
+    /**
+     * Gets the time spent painting the components of the editor.
+     * @return The paint statistics of the components
+     */
+    public PaintStats[] getPaintStats() {
+        return new PaintStats[0];
+    }
+    
     /**
      * Sets the scale of the editor content.
      * @param scale The scale of the content
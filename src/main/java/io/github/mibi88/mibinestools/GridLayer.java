@@ -0,0 +1,109 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * A grid drawn once in a transparent image and then copied where it is
+ * needed.
+ * The image contains a block of cells, as big as possible without being too
+ * large, and it is copied once for each block that is visible. It is only
+ * drawn again when the size of the cells changes.
+ * @author mibi88
+ */
+public class GridLayer {
+    // The maximum size of the image in pixels.
+    private static final int MAX_SIZE = 1024;
+    private Color color;
+    private int cellSize;
+    // The number of cells on each side of the image.
+    private int cells;
+    private BufferedImage image;
+    
+    /**
+     * Create a grid.
+     * @param color The color of the lines.
+     */
+    public GridLayer(Color color) {
+        this.color = color;
+        cellSize = 0;
+        image = null;
+    }
+    
+    /**
+     * Set the color of the lines.
+     * @param color The color of the lines.
+     */
+    public void setColor(Color color) {
+        if(!color.equals(this.color)){
+            this.color = color;
+            image = null;
+        }
+    }
+    
+    private void update(int cellSize) {
+        if(image != null && this.cellSize == cellSize){
+            return;
+        }
+        this.cellSize = cellSize;
+        cells = Math.max(1, MAX_SIZE/cellSize);
+        image = new BufferedImage(cells*cellSize, cells*cellSize,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        // The lines at the top and at the left of each cell.
+        for(int i=0;i<cells;i++){
+            g.drawLine(0, i*cellSize, cells*cellSize-1, i*cellSize);
+            g.drawLine(i*cellSize, 0, i*cellSize, cells*cellSize-1);
+        }
+        g.dispose();
+    }
+    
+    /**
+     * Draw the lines of some cells.
+     * @param g The graphics to draw with.
+     * @param cellSize The size of a cell in pixels.
+     * @param firstX The position of the first cell to draw.
+     * @param firstY The position of the first cell to draw.
+     * @param lastX The position of the last cell to draw.
+     * @param lastY The position of the last cell to draw.
+     */
+    public void paint(Graphics g, int cellSize, int firstX, int firstY,
+            int lastX, int lastY) {
+        if(cellSize <= 0 || firstX > lastX || firstY > lastY){
+            return;
+        }
+        update(cellSize);
+        for(int by=firstY/cells;by<=lastY/cells;by++){
+            int y1 = Math.max(firstY, by*cells);
+            int y2 = Math.min(lastY, by*cells+cells-1)+1;
+            for(int bx=firstX/cells;bx<=lastX/cells;bx++){
+                int x1 = Math.max(firstX, bx*cells);
+                int x2 = Math.min(lastX, bx*cells+cells-1)+1;
+                g.drawImage(image, x1*cellSize, y1*cellSize, x2*cellSize,
+                        y2*cellSize, (x1-bx*cells)*cellSize,
+                        (y1-by*cells)*cellSize, (x2-bx*cells)*cellSize,
+                        (y2-by*cells)*cellSize, null);
+            }
+        }
+    }
+}
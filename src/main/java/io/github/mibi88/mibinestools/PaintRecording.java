@@ -0,0 +1,87 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event recorded each time an instrumented component is painted.
+ * The duration of the event is the time spent painting.
+ * This class can only be loaded when the runtime has JFR, so it is only used
+ * by PaintStats after checking that JFR is available.
+ * @author mibi88
+ */
+@Name("io.github.mibi88.mibinestools.Paint")
+@Label("Paint")
+@Category({"MibiNESTools", "Rendering"})
+@Description("A component of an editor was painted")
+@StackTrace(false)
+class PaintRecording extends jdk.jfr.Event {
+    @Label("Component")
+    String component;
+    
+    @Label("Tiles Drawn")
+    @Description("The number of tiles, pixels or text ranges drawn again")
+    int tilesDrawn;
+    
+    @Label("Clip Width")
+    int clipWidth;
+    
+    @Label("Clip Height")
+    int clipHeight;
+    
+    // Used to check if the event is enabled without creating a new event on
+    // each paint.
+    private static final PaintRecording PROBE = new PaintRecording();
+    
+    /**
+     * Start recording a paint.
+     * @return The event, or null if the event is not enabled.
+     */
+    static PaintRecording start() {
+        if(!PROBE.isEnabled()){
+            return null;
+        }
+        PaintRecording recording = new PaintRecording();
+        recording.begin();
+        return recording;
+    }
+    
+    /**
+     * Stop recording a paint and commit the event.
+     * @param component The name of the component.
+     * @param tilesDrawn The number of tiles that were drawn.
+     * @param clipWidth The width of the painted area.
+     * @param clipHeight The height of the painted area.
+     */
+    void finish(String component, int tilesDrawn, int clipWidth,
+            int clipHeight) {
+        end();
+        if(shouldCommit()){
+            this.component = component;
+            this.tilesDrawn = tilesDrawn;
+            this.clipWidth = clipWidth;
+            this.clipHeight = clipHeight;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Measures the time spent painting a component.
+ * The last durations are kept to compute the average and the 99th
+ * percentile, and each paint is also recorded as a JFR event, so it can be
+ * analyzed with JDK Mission Control. The JFR events are only recorded if the
+ * runtime has JFR, older Java 8 runtimes don't.
+ * All the methods must be called from the event dispatch thread.
+ * @author mibi88
+ */
+public class PaintStats {
+    private static final int HISTORY = 256;
+    private static final boolean JFR_AVAILABLE = isJFRAvailable();
+    private String name;
+    private long[] durations;
+    private long[] times;
+    private int count;
+    private long start;
+    private PaintRecording recording;
+    
+    /**
+     * Create the statistics of a component.
+     * @param name The name of the component.
+     */
+    public PaintStats(String name) {
+        this.name = name;
+        durations = new long[HISTORY];
+        times = new long[HISTORY];
+        count = 0;
+    }
+    
+    private static boolean isJFRAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Get the name of the component.
+     * @return The name of the component.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Start measuring a paint.
+     */
+    public void begin() {
+        if(JFR_AVAILABLE){
+            recording = PaintRecording.start();
+        }
+        start = System.nanoTime();
+    }
+    
+    /**
+     * Stop measuring a paint.
+     * @param tilesDrawn The number of tiles that were drawn.
+     * @param g The graphics that was used to paint, to get the size of the
+     * clip.
+     */
+    public void end(int tilesDrawn, Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        end(tilesDrawn, clip == null ? 0 : clip.width,
+                clip == null ? 0 : clip.height);
+    }
+    
+    /**
+     * Stop measuring a paint.
+     * @param tilesDrawn The number of tiles that were drawn.
+     * @param clipWidth The width of the painted area.
+     * @param clipHeight The height of the painted area.
+     */
+    public void end(int tilesDrawn, int clipWidth, int clipHeight) {
+        long end = System.nanoTime();
+        durations[count%HISTORY] = end-start;
+        times[count%HISTORY] = end;
+        count++;
+        if(recording != null){
+            recording.finish(name, tilesDrawn, clipWidth, clipHeight);
+            recording = null;
+        }
+    }
+    
+    /**
+     * Get the number of paints measured.
+     * @return The number of paints.
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * Get the duration of the last paint.
+     * @return The duration in nanoseconds, 0 if nothing was painted.
+     */
+    public long getLast() {
+        return count == 0 ? 0 : durations[(count-1)%HISTORY];
+    }
+    
+    /**
+     * Get the average duration of the last paints.
+     * @return The duration in nanoseconds, 0 if nothing was painted.
+     */
+    public long getAverage() {
+        int n = Math.min(count, HISTORY);
+        if(n == 0){
+            return 0;
+        }
+        long total = 0;
+        for(int i=0;i<n;i++){
+            total += durations[i];
+        }
+        return total/n;
+    }
+    
+    /**
+     * Get the 99th percentile of the duration of the last paints.
+     * @return The duration in nanoseconds, 0 if nothing was painted.
+     */
+    public long getPercentile99() {
+        int n = Math.min(count, HISTORY);
+        if(n == 0){
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(durations, n);
+        Arrays.sort(sorted);
+        return sorted[(n*99-1)/100];
+    }
+    
+    /**
+     * Get the number of paints in the last second.
+     * @return The number of paints per second.
+     */
+    public int getFrequency() {
+        long now = System.nanoTime();
+        int n = Math.min(count, HISTORY);
+        int frequency = 0;
+        for(int i=0;i<n;i++){
+            if(now-times[i] <= 1000000000L){
+                frequency++;
+            }
+        }
+        return frequency;
+    }
+    
+    /**
+     * Get a short summary of the statistics.
+     * @return The last, average and 99th percentile durations in
+     * milliseconds, and the number of paints per second.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s: last %.2f ms, avg %.2f ms, p99 %.2f ms, "
+                + "%d/s", name, getLast()/1e6, getAverage()/1e6,
+                getPercentile99()/1e6, getFrequency());
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools;
+
+import java.awt.Graphics;
+
+/**
+ * Draws the content of a component in an AcceleratedBuffer.
+ * @author mibi88
+ */
+public interface RenderEvent {
+    
+    /**
+     * Draw the part of the content that is in the clip of g.
+     * @param g The graphics to draw with, in the coordinates of the component.
+     */
+    public void render(Graphics g);
+}
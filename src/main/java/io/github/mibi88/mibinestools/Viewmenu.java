@@ -34,6 +34,8 @@ public class Viewmenu extends JMenu {
     private JMenuItem zoomIn;
     private JMenuItem zoomOut;
     private JCheckBoxMenuItem grid;
+    private JCheckBoxMenuItem accelerated;
+    private JCheckBoxMenuItem paintStats;
 
     /**
      * Creates the View menu.
@@ -52,11 +54,17 @@ public class Viewmenu extends JMenu {
         grid.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G,
                 modifier));
         grid.setState(true);
+        accelerated = new JCheckBoxMenuItem("Accelerated rendering");
+        accelerated.setState(false);
+        paintStats = new JCheckBoxMenuItem("Paint statistics");
+        paintStats.setState(false);
         
         add(zoomIn);
         add(zoomOut);
         addSeparator();
         add(grid);
+        add(accelerated);
+        add(paintStats);
         addActions(window);
     }
     
@@ -64,7 +72,23 @@ public class Viewmenu extends JMenu {
         return grid.getState();
     }
     
+    public boolean getAccelerated() {
+        return accelerated.getState();
+    }
+    
     private void addActions(Window window) {
+        paintStats.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                window.setPaintStatsVisible(paintStats.getState());
+            }
+        });
+        accelerated.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                window.setAccelerated(accelerated.getState());
+            }
+        });
         grid.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent event) {
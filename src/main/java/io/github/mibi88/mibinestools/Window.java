@@ -22,6 +22,8 @@ import io.github.mibi88.mibinestools.nametable_editor.NametableEditor;
 import io.github.mibi88.mibinestools.chr_editor.CHREditor;
 import io.github.mibi88.mibinestools.code_editor.CodeEditor;
 import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
@@ -32,8 +34,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 
@@ -44,6 +48,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 public class Window extends JFrame {
     private final String TITLE = "MibiNESTools";
     private final int MAX_SCALE = 24;
+    private final int PAINT_STATS_DELAY = 500;
     
     private Menubar menubar;
     
@@ -54,6 +59,9 @@ public class Window extends JFrame {
     
     private int scale;
     
+    private JLabel paintStatsLabel;
+    private Timer paintStatsTimer;
+    
     /**
      * Initialize the GUI
      */
@@ -92,6 +100,35 @@ public class Window extends JFrame {
         updateMenus();
         
         add(tabs, BorderLayout.CENTER);
+        
+        paintStatsLabel = new JLabel();
+        paintStatsLabel.setVisible(false);
+        add(paintStatsLabel, BorderLayout.SOUTH);
+        paintStatsTimer = new Timer(PAINT_STATS_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                updatePaintStats();
+            }
+        });
+    }
+    
+    private void updatePaintStats() {
+        StringBuilder text = new StringBuilder("<html>");
+        Editor selected = null;
+        for(Editor editor : editors){
+            if(editor.isSelected()){
+                selected = editor;
+                break;
+            }
+        }
+        if(selected == null){
+            text.append("No editor");
+        }else{
+            for(PaintStats stats : selected.getPaintStats()){
+                text.append(stats.toString()).append("<br>");
+            }
+        }
+        paintStatsLabel.setText(text.append("</html>").toString());
     }
     
     /**
@@ -129,6 +166,7 @@ public class Window extends JFrame {
         Constructor constructor = editor.getConstructor(
                 this.getClass());
         Editor editorInstance = (Editor)constructor.newInstance(this);
+        editorInstance.setAccelerated(getAccelerated());
         tabs.addTab(editorInstance.getEditorName(),
                 editorInstance);
         ClosableTab closableTab = new ClosableTab(tabs,
@@ -300,6 +338,40 @@ public class Window extends JFrame {
         return menubar.getViewMenu().getGrid();
     }
     
+    /**
+     * Enable or disable the accelerated rendering in the editors.
+     * @param accelerated True if the content should be drawn in accelerated
+     * buffers.
+     */
+    public void setAccelerated(boolean accelerated) {
+        for(Editor editor : editors) {
+            editor.setAccelerated(accelerated);
+        }
+    }
+    
+    /**
+     * Check if the content should be drawn in accelerated buffers.
+     * @return Returns true if the rendering should be accelerated.
+     */
+    public boolean getAccelerated() {
+        return menubar.getViewMenu().getAccelerated();
+    }
+    
+    /**
+     * Show or hide the time spent painting the selected editor.
+     * @param visible True if the paint statistics should be shown.
+     */
+    public void setPaintStatsVisible(boolean visible) {
+        paintStatsLabel.setVisible(visible);
+        if(visible){
+            updatePaintStats();
+            paintStatsTimer.start();
+        }else{
+            paintStatsTimer.stop();
+        }
+        revalidate();
+    }
+    
     /**
      * Increase the scale of the content of the editors.
      */
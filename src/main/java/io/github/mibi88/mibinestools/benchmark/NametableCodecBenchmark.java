@@ -0,0 +1,216 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.benchmark;
+
+import io.github.mibi88.mibinestools.nametable_editor.LevelFile;
+import io.github.mibi88.mibinestools.nametable_editor.NametableCodec;
+import io.github.mibi88.mibinestools.nametable_editor.NametableCodecs;
+import io.github.mibi88.mibinestools.nametable_editor.WorldMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the compression ratio and the encoding and decoding speed of the
+ * nametable codecs, to choose the codec of each screen.
+ * Run it with nametable or level files as arguments, each screen of a level
+ * is measured separately. Without arguments, generated nametables are used.
+ * @author mibi88
+ */
+public class NametableCodecBenchmark {
+    private static final long MIN_TIME = 200000000L;
+    private static final long WARM_UP_TIME = 1000000000L;
+    
+    /**
+     * The main method
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        List<String> names = new ArrayList<>();
+        List<byte[]> screens = new ArrayList<>();
+        try {
+            if(args.length == 0){
+                generate(names, screens);
+            }
+            for(String arg : args){
+                load(new File(arg), names, screens);
+            }
+        } catch (Exception ex) {
+            System.out.println("Failed to load the files: "+ex.getMessage());
+            return;
+        }
+        NametableCodec[] codecs = NametableCodecs.getCodecs();
+        warmUp(codecs, screens);
+        System.out.printf("%-24s %-24s %8s %7s %12s %12s%n", "File", "Codec",
+                "Size", "Ratio", "Encode MB/s", "Decode MB/s");
+        for(int i=0;i<screens.size();i++){
+            byte[] data = screens.get(i);
+            String best = null;
+            int bestSize = Integer.MAX_VALUE;
+            for(NametableCodec codec : codecs){
+                try {
+                    byte[] encoded = encode(codec, data);
+                    if(!Arrays.equals(decode(codec, encoded), data)){
+                        System.out.printf("%-24s %-24s %s%n", names.get(i),
+                                codec.getName(), "bad round trip!");
+                        continue;
+                    }
+                    double encodeSpeed = measure(codec, data, true);
+                    double decodeSpeed = measure(codec, encoded, false);
+                    System.out.printf("%-24s %-24s %8d %6.1f%% %12.1f %12.1f%n",
+                            names.get(i), codec.getName(), encoded.length,
+                            encoded.length*100.0/data.length, encodeSpeed,
+                            decodeSpeed);
+                    if(encoded.length < bestSize){
+                        bestSize = encoded.length;
+                        best = codec.getName();
+                    }
+                } catch (IOException ex) {
+                    System.out.printf("%-24s %-24s %s%n", names.get(i),
+                            codec.getName(), ex.getMessage());
+                }
+            }
+            System.out.println("Smallest for "+names.get(i)+": "+best);
+        }
+    }
+    
+    private static void load(File file, List<String> names,
+            List<byte[]> screens) throws Exception {
+        if(LevelFile.isLevelFile(file)){
+            LevelFile level = LevelFile.open(file);
+            WorldMap map = level.createMap();
+            for(int y=0;y<map.getScreensY();y++){
+                for(int x=0;x<map.getScreensX();x++){
+                    if(!map.isEmpty(x, y)){
+                        names.add(file.getName()+" ("+x+", "+y+")");
+                        screens.add(level.getScreen(x, y));
+                    }
+                }
+            }
+            return;
+        }
+        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        FileInputStream fileStream = new FileInputStream(file);
+        try {
+            NametableCodecs.getCodec(file).decode(fileStream, dataStream);
+        } finally {
+            fileStream.close();
+        }
+        names.add(file.getName());
+        screens.add(dataStream.toByteArray());
+    }
+    
+    private static void generate(List<String> names, List<byte[]> screens) {
+        Random random = new Random(0);
+        names.add("empty");
+        screens.add(new byte[WorldMap.SCREEN_SIZE]);
+        // Rows of a few tiles, like the floors and walls of a level.
+        byte[] level = new byte[WorldMap.SCREEN_SIZE];
+        for(int y=0;y<WorldMap.SCREEN_HEIGHT;y++){
+            int tile = y > 22 ? 1+random.nextInt(4) : 0;
+            for(int x=0;x<WorldMap.SCREEN_WIDTH;x++){
+                if(random.nextInt(8) == 0){
+                    tile = random.nextInt(16);
+                }
+                level[y*WorldMap.SCREEN_WIDTH+x] = (byte)tile;
+            }
+        }
+        for(int i=WorldMap.ATTRIBUTES;i<level.length;i++){
+            level[i] = (byte)(i >= WorldMap.ATTRIBUTES+48 ? 0x55 : 0);
+        }
+        names.add("level");
+        screens.add(level);
+        // A title screen with a repeated pattern.
+        byte[] pattern = new byte[WorldMap.SCREEN_SIZE];
+        for(int i=0;i<WorldMap.ATTRIBUTES;i++){
+            pattern[i] = (byte)(0x40+(i%WorldMap.SCREEN_WIDTH)%4
+                    +i/WorldMap.SCREEN_WIDTH%2*4);
+        }
+        names.add("pattern");
+        screens.add(pattern);
+        byte[] noise = new byte[WorldMap.SCREEN_SIZE];
+        for(int i=0;i<noise.length;i++){
+            noise[i] = (byte)random.nextInt(128);
+        }
+        names.add("noise");
+        screens.add(noise);
+    }
+    
+    private static void warmUp(NametableCodec[] codecs, List<byte[]> screens) {
+        // Run the codecs long enough to let the JIT compile them.
+        for(NametableCodec codec : codecs){
+            long start = System.nanoTime();
+            while(System.nanoTime()-start < WARM_UP_TIME){
+                for(byte[] data : screens){
+                    try {
+                        decode(codec, encode(codec, data));
+                    } catch (IOException ex) {
+                        // The error is displayed with the results.
+                    }
+                }
+            }
+        }
+    }
+    
+    private static byte[] encode(NametableCodec codec, byte[] data)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+    
+    private static byte[] decode(NametableCodec codec, byte[] data)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.decode(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Encode or decode data until enough time passed.
+     * @return The speed in MB of decoded data per second.
+     */
+    private static double measure(NametableCodec codec, byte[] data,
+            boolean encoding) throws IOException {
+        long decodedSize = encoding ? data.length : decode(codec, data).length;
+        long count = 0;
+        long start = System.nanoTime();
+        long time;
+        do {
+            run(codec, data, encoding);
+            count++;
+            time = System.nanoTime()-start;
+        } while(time < MIN_TIME);
+        return decodedSize*count/(time/1e9)/1e6;
+    }
+    
+    private static void run(NametableCodec codec, byte[] data,
+            boolean encoding) throws IOException {
+        if(encoding){
+            encode(codec, data);
+        }else{
+            decode(codec, data);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.benchmark;
+
+import io.github.mibi88.mibinestools.chr_editor.CHRCodec;
+import io.github.mibi88.mibinestools.chr_editor.TileRasterizer;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Compares drawing a nametable with BufferedImage.setRGB, as it was done
+ * before, and with TileRasterizer.
+ * Run it with the scale as first argument (8 by default).
+ * @author mibi88
+ */
+public class RasterizerBenchmark {
+    private static final int ITERATIONS = 50;
+    
+    /**
+     * The main method
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        byte[] raw = new byte[256*CHRCodec.RAW_TILE_SIZE];
+        byte[] tiles = new byte[32*30];
+        Random random = new Random(0);
+        random.nextBytes(raw);
+        random.nextBytes(tiles);
+        int[][] palette = {{0, 0, 0}, {255, 0, 0}, {0, 255, 0},
+            {0, 0, 255}};
+        System.out.println("Drawing a 32*30 tiles nametable at scale "+scale
+                +".");
+        // Run both a first time to let the JIT compile them.
+        setRGB(raw, tiles, palette, scale);
+        rasterizer(raw, tiles, palette, scale);
+        long start = System.nanoTime();
+        for(int i=0;i<ITERATIONS;i++){
+            setRGB(raw, tiles, palette, scale);
+        }
+        double setRGBTime = (System.nanoTime()-start)/1e6/ITERATIONS;
+        start = System.nanoTime();
+        for(int i=0;i<ITERATIONS;i++){
+            rasterizer(raw, tiles, palette, scale);
+        }
+        double rasterizerTime = (System.nanoTime()-start)/1e6/ITERATIONS;
+        System.out.printf("setRGB: %.3f ms%n", setRGBTime);
+        System.out.printf("TileRasterizer: %.3f ms%n", rasterizerTime);
+        System.out.printf("Speedup: %.1fx%n", setRGBTime/rasterizerTime);
+    }
+    
+    private static void setRGB(byte[] raw, byte[] tiles, int[][] palette,
+            int scale) {
+        // One image per tile, as generateTileImage used to do.
+        for(int i=0;i<tiles.length;i++){
+            BufferedImage image = new BufferedImage(8*scale, 8*scale,
+                    BufferedImage.TYPE_INT_RGB);
+            int pos = (tiles[i]&0xFF)*CHRCodec.RAW_TILE_SIZE;
+            for(int y=0;y<8;y++){
+                long row = CHRCodec.decodeRow(raw[pos+y], raw[pos+8+y]);
+                for(int x=0;x<8;x++){
+                    int colorNum = (int)(row>>>x*8)&0b00000011;
+                    int color = (palette[colorNum][0] << 16)
+                            |(palette[colorNum][1] << 8)|palette[colorNum][2];
+                    for(int sy=0;sy<scale;sy++){
+                        for(int sx=0;sx<scale;sx++){
+                            image.setRGB(x*scale+sx, y*scale+sy, color);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private static void rasterizer(byte[] raw, byte[] tiles,
+            int[][] palette, int scale) {
+        // All the tiles are drawn in the same image.
+        BufferedImage image = new BufferedImage(32*8*scale, 30*8*scale,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = TileRasterizer.getPixels(image);
+        int[] colors = TileRasterizer.getColors(palette);
+        for(int i=0;i<tiles.length;i++){
+            TileRasterizer.drawTile(raw, (tiles[i]&0xFF)
+                    *CHRCodec.RAW_TILE_SIZE, colors, pixels,
+                    (i/32*8*scale)*image.getWidth()+i%32*8*scale,
+                    image.getWidth(), scale);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import javax.swing.undo.AbstractUndoableEdit;
+
+/**
+ * This class stores an action made on multiple tiles in the CHR editor.
+ * @author mibi88
+ */
+public class CHRBulkEdit extends AbstractUndoableEdit {
+    private CHRSnapshot oldData;
+    private CHRSnapshot newData;
+    private int tileIndex;
+    private int count;
+    private CHREditor editor;
+    
+    /**
+     * Create a new edit.
+     * The snapshots share their CHR banks with the pattern table, so the
+     * edit does not have to copy the tiles.
+     * @param editor The CHR editor used.
+     * @param oldData A snapshot of the pattern table before the edition.
+     * @param newData A snapshot of the pattern table after the edition.
+     * @param tileIndex The index of the first edited tile.
+     * @param count The number of edited tiles.
+     */
+    public CHRBulkEdit(CHREditor editor, CHRSnapshot oldData,
+            CHRSnapshot newData, int tileIndex, int count) {
+        super();
+        this.oldData = oldData;
+        this.newData = newData;
+        this.tileIndex = tileIndex;
+        this.count = count;
+        this.editor = editor;
+    }
+    
+    /**
+     * Undo this action.
+     */
+    @Override
+    public void undo() {
+        super.undo();
+        editor.updateTiles(oldData, tileIndex, count);
+    }
+    
+    /**
+     * Redo this action.
+     */
+    @Override
+    public void redo() {
+        super.redo();
+        editor.updateTiles(newData, tileIndex, count);
+    }
+}
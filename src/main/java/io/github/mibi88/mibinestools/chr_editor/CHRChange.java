@@ -0,0 +1,109 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+/**
+ * Describes a range of tiles of CHR data that changed.
+ * @author mibi88
+ */
+public class CHRChange {
+    private int firstTile;
+    private int lastTile;
+    private CHRChangeCause cause;
+
+    /**
+     * Create a new change.
+     * @param firstTile The index of the first tile that changed.
+     * @param lastTile The index of the last tile that changed.
+     * @param cause The reason of the change.
+     */
+    public CHRChange(int firstTile, int lastTile, CHRChangeCause cause) {
+        this.firstTile = firstTile;
+        this.lastTile = lastTile;
+        this.cause = cause;
+    }
+    
+    /**
+     * Merge this change with another one.
+     * A reload is kept as the cause when one of the changes is a reload, as
+     * the number of CHR banks may have changed.
+     * @param change The other change.
+     * @return A change that covers the tiles of both changes.
+     */
+    public CHRChange merge(CHRChange change) {
+        CHRChangeCause mergedCause = CHRChangeCause.MULTIPLE;
+        if(cause == CHRChangeCause.RELOAD
+                || change.cause == CHRChangeCause.RELOAD){
+            mergedCause = CHRChangeCause.RELOAD;
+        }else if(cause == change.cause){
+            mergedCause = cause;
+        }
+        return new CHRChange(Math.min(firstTile, change.firstTile),
+                Math.max(lastTile, change.lastTile), mergedCause);
+    }
+    
+    /**
+     * Check if some tiles in a range changed.
+     * @param first The index of the first tile of the range.
+     * @param last The index of the last tile of the range.
+     * @return Returns true if the ranges overlap.
+     */
+    public boolean intersects(int first, int last) {
+        return firstTile <= last && lastTile >= first;
+    }
+    
+    /**
+     * Get the index of the first tile that changed.
+     * @return The index of the tile.
+     */
+    public int getFirstTile() {
+        return firstTile;
+    }
+    
+    /**
+     * Get the index of the last tile that changed.
+     * @return The index of the tile.
+     */
+    public int getLastTile() {
+        return lastTile;
+    }
+    
+    /**
+     * Get the CHR bank of the first tile that changed.
+     * @return The CHR bank.
+     */
+    public int getFirstBank() {
+        return firstTile/CHRData.BANK_TILES;
+    }
+    
+    /**
+     * Get the CHR bank of the last tile that changed.
+     * @return The CHR bank.
+     */
+    public int getLastBank() {
+        return lastTile/CHRData.BANK_TILES;
+    }
+    
+    /**
+     * Get the reason of the change.
+     * @return The cause of the change.
+     */
+    public CHRChangeCause getCause() {
+        return cause;
+    }
+}
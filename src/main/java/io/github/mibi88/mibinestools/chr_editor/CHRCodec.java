@@ -0,0 +1,230 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts tiles between the planar NES format and one byte per pixel.
+ * A raw tile is made out of 16 bytes: 8 bytes for the low bit plane followed
+ * by 8 bytes for the high bit plane. A decoded tile is made out of 64 bytes,
+ * one per pixel, row by row.
+ * None of the methods of this class allocate memory.
+ * @author mibi88
+ */
+public final class CHRCodec {
+    /**
+     * The size of a raw tile in bytes.
+     */
+    public static final int RAW_TILE_SIZE = 16;
+    
+    /**
+     * The size of a decoded tile in bytes.
+     */
+    public static final int TILE_SIZE = 8*8;
+    
+    // Each entry spreads the 8 bits of a plane byte over the 8 bytes of a
+    // long, the leftmost pixel being in the lowest byte. A row of pixels is
+    // then PLANE[low]|PLANE[high]<<1.
+    private static final long[] PLANE = new long[256];
+    
+    // Each entry spreads the 8 bits of a plane byte over the even bits of a
+    // 16 bit value. A row of pixels packed with 2 bits per pixel is then
+    // PACKED[low]|PACKED[high]<<1.
+    private static final int[] PACKED = new int[256];
+    
+    // Multiplying the low bit of each byte of a long by this number gathers
+    // them in the highest byte, the lowest byte ending up in bit 7.
+    private static final long GATHER = 0x8040201008040201L;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    
+    static {
+        for(int i=0;i<256;i++){
+            long row = 0;
+            for(int x=0;x<8;x++){
+                row |= (long)(i>>7-x&1)<<x*8;
+            }
+            PLANE[i] = row;
+            int packed = 0;
+            for(int b=0;b<8;b++){
+                packed |= (i>>b&1)<<b*2;
+            }
+            PACKED[i] = packed;
+        }
+    }
+    
+    private CHRCodec() {
+        return;
+    }
+    
+    /**
+     * Decode a row of pixels.
+     * @param low The byte of the low bit plane.
+     * @param high The byte of the high bit plane.
+     * @return The 8 pixels of the row, the pixel at x being stored in the
+     * byte x of the returned value.
+     */
+    public static long decodeRow(int low, int high) {
+        return PLANE[low&0xFF]|PLANE[high&0xFF]<<1;
+    }
+    
+    /**
+     * Convert a row of pixels to 2 bits per pixel.
+     * @param low The byte of the low bit plane.
+     * @param high The byte of the high bit plane.
+     * @return The 8 pixels of the row in the lowest 16 bits, the leftmost
+     * pixel being in the highest bits, as in a BufferedImage of type
+     * TYPE_BYTE_BINARY.
+     */
+    public static int packRow(int low, int high) {
+        return PACKED[low&0xFF]|PACKED[high&0xFF]<<1;
+    }
+    
+    /**
+     * Encode a row of pixels.
+     * @param row The 8 pixels of the row, as returned by decodeRow.
+     * @return The byte of the low bit plane in the low byte, and the byte of
+     * the high bit plane in the high byte.
+     */
+    public static int encodeRow(long row) {
+        int low = (int)(((row&LOW_BITS)*GATHER)>>>56);
+        int high = (int)((((row>>>1)&LOW_BITS)*GATHER)>>>56);
+        return low|high<<8;
+    }
+    
+    /**
+     * Get the color of a pixel of a raw tile.
+     * @param src The raw CHR data.
+     * @param srcOffset The position of the tile in src.
+     * @param x The position of the pixel in the tile.
+     * @param y The position of the pixel in the tile.
+     * @return The color of the pixel (0-3).
+     */
+    public static int getPixel(byte[] src, int srcOffset, int x, int y) {
+        return (src[srcOffset+y]>>7-x&1)|(src[srcOffset+8+y]>>7-x&1)<<1;
+    }
+    
+    /**
+     * Decode multiple tiles.
+     * @param src The raw CHR data.
+     * @param srcOffset The position of the first tile in src.
+     * @param dst The array to decode the tiles to.
+     * @param dstOffset The position to decode the first tile at in dst.
+     * @param tiles The number of tiles to decode.
+     */
+    public static void decodeRange(byte[] src, int srcOffset, byte[] dst,
+            int dstOffset, int tiles) {
+        int end = srcOffset+tiles*RAW_TILE_SIZE;
+        for(int i=srcOffset;i<end;i+=RAW_TILE_SIZE){
+            for(int y=0;y<8;y++){
+                long row = PLANE[src[i+y]&0xFF]|PLANE[src[i+8+y]&0xFF]<<1;
+                storeRow(row, dst, dstOffset);
+                dstOffset += 8;
+            }
+        }
+    }
+    
+    /**
+     * Decode multiple tiles from a buffer.
+     * The position of the buffer is not modified.
+     * @param src The buffer containing the raw CHR data.
+     * @param srcOffset The position of the first tile in src.
+     * @param dst The array to decode the tiles to.
+     * @param dstOffset The position to decode the first tile at in dst.
+     * @param tiles The number of tiles to decode.
+     */
+    public static void decodeRange(ByteBuffer src, int srcOffset, byte[] dst,
+            int dstOffset, int tiles) {
+        int end = srcOffset+tiles*RAW_TILE_SIZE;
+        for(int i=srcOffset;i<end;i+=RAW_TILE_SIZE){
+            for(int y=0;y<8;y++){
+                long row = PLANE[src.get(i+y)&0xFF]
+                        |PLANE[src.get(i+8+y)&0xFF]<<1;
+                storeRow(row, dst, dstOffset);
+                dstOffset += 8;
+            }
+        }
+    }
+    
+    /**
+     * Encode multiple tiles.
+     * Only the two lowest bits of each pixel are used.
+     * @param src The decoded tiles.
+     * @param srcOffset The position of the first tile in src.
+     * @param dst The array to store the raw CHR data in.
+     * @param dstOffset The position to store the first tile at in dst.
+     * @param tiles The number of tiles to encode.
+     */
+    public static void encodeRange(byte[] src, int srcOffset, byte[] dst,
+            int dstOffset, int tiles) {
+        int end = dstOffset+tiles*RAW_TILE_SIZE;
+        for(int i=dstOffset;i<end;i+=RAW_TILE_SIZE){
+            for(int y=0;y<8;y++){
+                int planes = encodeRow(loadRow(src, srcOffset));
+                dst[i+y] = (byte)planes;
+                dst[i+8+y] = (byte)(planes>>8);
+                srcOffset += 8;
+            }
+        }
+    }
+    
+    /**
+     * Encode multiple tiles to a buffer.
+     * Only the two lowest bits of each pixel are used. The position of the
+     * buffer is not modified.
+     * @param src The decoded tiles.
+     * @param srcOffset The position of the first tile in src.
+     * @param dst The buffer to store the raw CHR data in.
+     * @param dstOffset The position to store the first tile at in dst.
+     * @param tiles The number of tiles to encode.
+     */
+    public static void encodeRange(byte[] src, int srcOffset, ByteBuffer dst,
+            int dstOffset, int tiles) {
+        int end = dstOffset+tiles*RAW_TILE_SIZE;
+        for(int i=dstOffset;i<end;i+=RAW_TILE_SIZE){
+            for(int y=0;y<8;y++){
+                int planes = encodeRow(loadRow(src, srcOffset));
+                dst.put(i+y, (byte)planes);
+                dst.put(i+8+y, (byte)(planes>>8));
+                srcOffset += 8;
+            }
+        }
+    }
+    
+    private static void storeRow(long row, byte[] dst, int dstOffset) {
+        dst[dstOffset] = (byte)row;
+        dst[dstOffset+1] = (byte)(row>>>8);
+        dst[dstOffset+2] = (byte)(row>>>16);
+        dst[dstOffset+3] = (byte)(row>>>24);
+        dst[dstOffset+4] = (byte)(row>>>32);
+        dst[dstOffset+5] = (byte)(row>>>40);
+        dst[dstOffset+6] = (byte)(row>>>48);
+        dst[dstOffset+7] = (byte)(row>>>56);
+    }
+    
+    private static long loadRow(byte[] src, int srcOffset) {
+        return (src[srcOffset]&0xFFL)
+                |(src[srcOffset+1]&0xFFL)<<8
+                |(src[srcOffset+2]&0xFFL)<<16
+                |(src[srcOffset+3]&0xFFL)<<24
+                |(src[srcOffset+4]&0xFFL)<<32
+                |(src[srcOffset+5]&0xFFL)<<40
+                |(src[srcOffset+6]&0xFFL)<<48
+                |(src[srcOffset+7]&0xFFL)<<56;
+    }
+}
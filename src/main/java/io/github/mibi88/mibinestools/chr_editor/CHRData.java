@@ -19,49 +19,286 @@ package io.github.mibi88.mibinestools.chr_editor;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.StampedLock;
+import javax.swing.SwingUtilities;
 
 /**
  * This class stores the pattern table.
+ * The tiles are only kept in the planar format used by the NES (16 bytes per
+ * tile), the pixels are decoded when they are accessed.
+ * When the pattern table is loaded from a file, the file is mapped in memory
+ * and each CHR bank only gets copied from it the first time it is used.
+ * The modified tiles are tracked so that saving to the same file only writes
+ * them, and an index of the tiles makes searching for duplicate tiles fast.
+ * The event handlers are told which tiles changed, so that they only have to
+ * redraw them.
+ * It can be used from multiple threads: each CHR bank has its own lock, and
+ * the tiles are read without locking as long as no other thread is writing
+ * to their bank at the same time.
+ * Snapshots of the data share the CHR banks with it, a bank only gets copied
+ * when it is modified after a snapshot was created.
+ * The whole pattern table is drawn from a PatternRaster, that stores the
+ * color index of each pixel.
  * @author mibi88
  */
 public class CHRData {
-    byte[][] chrData;
-    int chrBanks;
-    byte[] rawData;
+    /**
+     * The number of tiles in a CHR bank.
+     */
+    public static final int BANK_TILES = 256;
+    
+    /**
+     * The size of a CHR bank in bytes.
+     */
+    public static final int BANK_SIZE = BANK_TILES*CHRCodec.RAW_TILE_SIZE;
+    
+    // The number of tiles under which transformTiles stops splitting the
+    // work.
+    private static final int TRANSFORM_THRESHOLD = 256;
+    
+    // Replaced as a whole when other data is loaded, so that the threads that
+    // are still using the previous banks do not see a mix of both.
+    private volatile Banks banks;
+    // The file the data was loaded from or last saved to, the tiles that are
+    // not in dirtyTiles are the same in this file.
+    private File file;
+    private long fileLastModified;
+    private BitSet dirtyTiles;
+    // Built the first time a tile is searched, then kept up to date.
+    private TileIndex index;
+    // Created the first time the pattern table is drawn.
+    private PatternRaster patternRaster;
+    // Protects file, fileLastModified, dirtyTiles, index and patternRaster.
+    // The bank locks may be taken while holding it, but not the other way
+    // around.
+    private final Object stateLock = new Object();
+    private final Object saveLock = new Object();
+    private List<CHRDataEvent> eventHandlers =
+            new CopyOnWriteArrayList<CHRDataEvent>();
+    // The changes that were not sent to the event handlers yet.
+    private CHRChange pendingChange;
+    private final Object changeLock = new Object();
     
     /**
      * Initialize the data with a new pattern table.
      */
     public CHRData() {
         resetCHRData(2);
-        rawData = new byte[2*256*16];
     }
     
     /**
      * Load the pattern table from a file.
+     * The file is mapped in memory, the CHR banks are only read when they get
+     * used.
      * @param file The file to load the pattern table from.
      * @throws Exception Gets thrown if the loading failed.
      */
     public CHRData(File file) throws Exception {
-        FileInputStream fileStream = new FileInputStream(file);
-        rawData = new byte[fileStream.available()];
-        fileStream.read(rawData);
-        loadCHRData(rawData);
-        fileStream.close();
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new Exception("The file is too big!");
+            }
+            ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    size);
+            int chrBanks = (int)(size/BANK_SIZE);
+            byte[] trailer = new byte[(int)(size%BANK_SIZE)];
+            ByteBuffer buffer = mapping.duplicate();
+            buffer.position(chrBanks*BANK_SIZE);
+            buffer.get(trailer);
+            banks = new Banks(chrBanks, mapping, trailer);
+        } finally {
+            channel.close();
+        }
+        dirtyTiles = new BitSet();
+        setFile(file);
     }
     
     /**
      * Save the pattern table to a file.
+     * If the file is the one the data was loaded from or last saved to, only
+     * the modified tiles get written. Else the whole file is written to a
+     * temporary file that then replaces it. The file is also replaced if
+     * snapshots still read the banks of the modified tiles from the mapped
+     * file. Before the mapped file is replaced, all its banks are read in
+     * memory.
+     * The tiles can be modified by other threads during the save.
      * @param file The file to save the pattern table to.
      * @throws Exception Gets thrown on failure.
      */
     public void saveCHRData(File file) throws Exception {
-        FileOutputStream fileStream = new FileOutputStream(file);
-        fileStream.write(rawData);
-        fileStream.close();
+        synchronized(saveLock){
+            Banks b;
+            BitSet dirty;
+            boolean incremental;
+            synchronized(stateLock){
+                b = banks;
+                incremental = canSaveDirtyTiles(file, b)
+                        && !writesSharedMapping(b, dirtyTiles);
+                // The tiles modified from now on will be marked again.
+                dirty = (BitSet)dirtyTiles.clone();
+                dirtyTiles.clear();
+            }
+            try {
+                if(incremental){
+                    saveDirtyTiles(file, b, dirty);
+                }else{
+                    saveAll(file, b);
+                }
+            } catch (Exception ex) {
+                synchronized(stateLock){
+                    if(banks == b){
+                        dirtyTiles.or(dirty);
+                    }
+                }
+                throw ex;
+            }
+            if(!incremental){
+                // The file was replaced, the mapping is not modified by the
+                // next saves.
+                b.fileMapped = false;
+            }
+            synchronized(stateLock){
+                if(banks == b){
+                    setFile(file);
+                }
+            }
+        }
+    }
+    
+    private void setFile(File file) {
+        this.file = file.getAbsoluteFile();
+        fileLastModified = file.lastModified();
+    }
+    
+    private boolean canSaveDirtyTiles(File file, Banks b) {
+        // If the file was modified by another program, it has to be
+        // completely rewritten.
+        return this.file != null && this.file.equals(file.getAbsoluteFile())
+                && file.lastModified() == fileLastModified
+                && file.length() == (long)b.count*BANK_SIZE+b.trailer.length;
+    }
+    
+    private static boolean writesSharedMapping(Banks b, BitSet dirty) {
+        // Writing the tiles in place would modify the snapshots that read
+        // their bank from the mapping, so the file has to be replaced.
+        if(!b.fileMapped){
+            return false;
+        }
+        synchronized(b.mappedShared){
+            for(int i=b.mappedShared.nextSetBit(0);i>=0;
+                    i=b.mappedShared.nextSetBit(i+1)){
+                int tile = dirty.nextSetBit(i*BANK_TILES);
+                if(tile >= 0 && tile < (i+1)*BANK_TILES){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void saveDirtyTiles(File file, Banks b, BitSet dirty)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE);
+        try {
+            byte[] data = new byte[BANK_SIZE];
+            int start = dirty.nextSetBit(0);
+            while(start >= 0){
+                // Write consecutive modified tiles of a bank at once.
+                int bankEnd = (start/BANK_TILES+1)*BANK_TILES;
+                int end = Math.min(dirty.nextClearBit(start), bankEnd);
+                int size = (end-start)*CHRCodec.RAW_TILE_SIZE;
+                readRaw(b, start/BANK_TILES,
+                        start%BANK_TILES*CHRCodec.RAW_TILE_SIZE, data, 0,
+                        size);
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+                long position = (long)start*CHRCodec.RAW_TILE_SIZE;
+                while(buffer.hasRemaining()){
+                    position += channel.write(buffer, position);
+                }
+                start = dirty.nextSetBit(end);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private void saveAll(File file, Banks b) throws IOException {
+        // The other threads can keep modifying the data during the write. The
+        // file may be the mapped one, but it is only replaced once the whole
+        // snapshot was written.
+        CHRSnapshot snapshot = snapshot(b);
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName()+".tmp");
+        try {
+            FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            try {
+                snapshot.write(channel);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+            boolean mapped;
+            synchronized(stateLock){
+                mapped = b.fileMapped
+                        && target.toFile().equals(this.file);
+            }
+            if(mapped){
+                readMappedBanks(b);
+            }
+            try {
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (FileSystemException ex) {
+                // On Windows a file can't be replaced while it is mapped,
+                // the mapping is only released once it is garbage collected.
+                throw new IOException("Failed to replace the file, it may"
+                        + " still be mapped or opened by another program!",
+                        ex);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private void readMappedBanks(Banks b) {
+        // Windows can't replace a file that is mapped in memory, so the banks
+        // are read before the mapping is dropped.
+        for(int i=0;i<b.count;i++){
+            long stamp = b.locks[i].writeLock();
+            try {
+                loadBank(b, i);
+            } finally {
+                b.locks[i].unlockWrite(stamp);
+            }
+        }
+        b.mapping = null;
     }
     
     /**
@@ -70,28 +307,433 @@ public class CHRData {
      */
     public void loadCHRData(byte[] rawData) {
         // Each tile is made out of 16 bytes and each bank out of 256 tiles.
-        resetCHRData(rawData.length/(256*16));
-        for(int i=0;i<chrBanks*256;i++){
-            chrData[i] = loadTile(Arrays.copyOfRange(rawData,
-                    i*16, i*16+16));
+        int chrBanks = rawData.length/BANK_SIZE;
+        byte[] trailer = new byte[rawData.length%BANK_SIZE];
+        System.arraycopy(rawData, chrBanks*BANK_SIZE, trailer, 0,
+                trailer.length);
+        Banks b = new Banks(chrBanks, null, trailer);
+        for(int i=0;i<chrBanks;i++){
+            b.data[i] = new byte[BANK_SIZE];
+            System.arraycopy(rawData, i*BANK_SIZE, b.data[i], 0, BANK_SIZE);
         }
+        replaceBanks(b);
     }
     
     /**
-     * Reset the raw CHR data.
+     * Reset the CHR data.
      * @param chrBanks The number of banks of the CHR data.
      */
-    public void resetRawData(int chrBanks) {
-        rawData = new byte[chrBanks*256*16];
+    public void resetCHRData(int chrBanks) {
+        Banks b = new Banks(chrBanks, null, new byte[0]);
+        for(int i=0;i<chrBanks;i++){
+            b.data[i] = new byte[BANK_SIZE];
+        }
+        replaceBanks(b);
+    }
+    
+    private void replaceBanks(Banks b) {
+        synchronized(stateLock){
+            banks = b;
+            file = null;
+            dirtyTiles = new BitSet();
+            index = null;
+            patternRaster = null;
+        }
+        publishChange(new CHRChange(0, b.count*BANK_TILES-1,
+                CHRChangeCause.RELOAD));
+    }
+    
+    /**
+     * Check if some tiles were modified since the data was loaded or saved.
+     * @return Returns true if some tiles were modified.
+     */
+    public boolean isModified() {
+        synchronized(stateLock){
+            return !dirtyTiles.isEmpty();
+        }
     }
     
     /**
-     * Reset the CHR data.
-     * @param chrBanks The number of banks of the CHR data.
+     * Check if a CHR bank was already read from the file.
+     * @param bank The CHR bank.
+     * @return Returns true if the CHR bank is in memory.
      */
-    public void resetCHRData(int chrBanks) {
-        chrData = new byte[256*chrBanks][8*8];
-        this.chrBanks = chrBanks;
+    public boolean isBankLoaded(int bank) {
+        Banks b = banks;
+        if(bank < 0 || bank >= b.count){
+            return false;
+        }
+        long stamp = b.locks[bank].readLock();
+        try {
+            return b.data[bank] != null;
+        } finally {
+            b.locks[bank].unlockRead(stamp);
+        }
+    }
+    
+    private void loadBank(Banks b, int bank) {
+        // The write lock of the bank has to be held.
+        if(b.data[bank] == null){
+            byte[] data = new byte[BANK_SIZE];
+            ByteBuffer buffer = b.mapping.duplicate();
+            buffer.position(bank*BANK_SIZE);
+            buffer.get(data);
+            b.data[bank] = data;
+        }
+    }
+    
+    private long readLock(Banks b, int bank) {
+        StampedLock lock = b.locks[bank];
+        long stamp = lock.readLock();
+        if(b.data[bank] == null){
+            long writeStamp = lock.tryConvertToWriteLock(stamp);
+            if(writeStamp == 0){
+                lock.unlockRead(stamp);
+                writeStamp = lock.writeLock();
+            }
+            loadBank(b, bank);
+            stamp = lock.tryConvertToReadLock(writeStamp);
+        }
+        return stamp;
+    }
+    
+    private long writeLock(Banks b, int bank) {
+        long stamp = b.locks[bank].writeLock();
+        prepareWrite(b, bank);
+        return stamp;
+    }
+    
+    private void prepareWrite(Banks b, int bank) {
+        // The write lock of the bank has to be held.
+        loadBank(b, bank);
+        if(b.shared[bank]){
+            // Keep the data of the snapshots that use this bank.
+            b.data[bank] = b.data[bank].clone();
+            b.shared[bank] = false;
+        }
+    }
+    
+    private long[] lockBanks(Banks b, int firstBank, int lastBank,
+            boolean write) {
+        // The banks are always locked in the same order to avoid deadlocks.
+        long[] stamps = new long[Math.max(lastBank-firstBank+1, 0)];
+        for(int i=0;i<stamps.length;i++){
+            stamps[i] = write ? writeLock(b, firstBank+i) :
+                    readLock(b, firstBank+i);
+        }
+        return stamps;
+    }
+    
+    private void unlockBanks(Banks b, int firstBank, long[] stamps) {
+        for(int i=0;i<stamps.length;i++){
+            b.locks[firstBank+i].unlock(stamps[i]);
+        }
+    }
+    
+    private void readRaw(Banks b, int bank, int offset, byte[] out,
+            int outOffset, int length) {
+        // Try to copy the data without locking, it only has to be copied
+        // again if the bank was written to in the meantime.
+        StampedLock lock = b.locks[bank];
+        long stamp = lock.tryOptimisticRead();
+        byte[] data = b.data[bank];
+        if(data != null){
+            System.arraycopy(data, offset, out, outOffset, length);
+            if(lock.validate(stamp)){
+                return;
+            }
+        }
+        stamp = readLock(b, bank);
+        try {
+            System.arraycopy(b.data[bank], offset, out, outOffset, length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    private void readRawTiles(Banks b, int tileIndex, int count, byte[] out,
+            int offset) {
+        int firstBank = tileIndex/BANK_TILES;
+        int lastBank = (tileIndex+count-1)/BANK_TILES;
+        if(count <= 0){
+            return;
+        }
+        if(firstBank == lastBank){
+            readRaw(b, firstBank, tileIndex%BANK_TILES*CHRCodec.RAW_TILE_SIZE,
+                    out, offset, count*CHRCodec.RAW_TILE_SIZE);
+            return;
+        }
+        // Lock all the banks to get the state they had at a single moment.
+        long[] stamps = lockBanks(b, firstBank, lastBank, false);
+        try {
+            while(count > 0){
+                int bankTile = tileIndex%BANK_TILES;
+                int n = Math.min(count, BANK_TILES-bankTile);
+                System.arraycopy(b.data[tileIndex/BANK_TILES],
+                        bankTile*CHRCodec.RAW_TILE_SIZE, out, offset,
+                        n*CHRCodec.RAW_TILE_SIZE);
+                offset += n*CHRCodec.RAW_TILE_SIZE;
+                tileIndex += n;
+                count -= n;
+            }
+        } finally {
+            unlockBanks(b, firstBank, stamps);
+        }
+    }
+    
+    /**
+     * Create a snapshot of the pattern table.
+     * It does not copy the CHR banks, so it is fast even for big pattern
+     * tables.
+     * @return The snapshot.
+     */
+    public CHRSnapshot snapshot() {
+        return snapshot(banks);
+    }
+    
+    private CHRSnapshot snapshot(Banks b) {
+        // All the banks are locked at once to get the state they had at a
+        // single moment. The banks that were not loaded yet stay in the
+        // mapping.
+        long[] stamps = new long[b.count];
+        for(int i=0;i<b.count;i++){
+            stamps[i] = b.locks[i].readLock();
+        }
+        try {
+            byte[][] data = new byte[b.count][];
+            for(int i=0;i<b.count;i++){
+                data[i] = b.data[i];
+                if(data[i] != null){
+                    b.shared[i] = true;
+                }else{
+                    synchronized(b.mappedShared){
+                        b.mappedShared.set(i);
+                    }
+                }
+            }
+            return new CHRSnapshot(data, b.mapping, b.trailer);
+        } finally {
+            unlockBanks(b, 0, stamps);
+        }
+    }
+    
+    /**
+     * Set multiple consecutive tiles back to their content in a snapshot.
+     * The CHR banks that are entirely restored are shared with the snapshot
+     * instead of being copied.
+     * @param snapshot The snapshot to restore the tiles from.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles.
+     * @throws Exception Gets thrown if the tiles are out of bounds of the
+     * pattern table or of the snapshot.
+     */
+    public void restore(CHRSnapshot snapshot, int tileIndex, int count)
+            throws Exception {
+        Banks b = banks;
+        int tileCount = Math.min(b.count, snapshot.getChrBanks())*BANK_TILES;
+        if(tileIndex >= 0 && count >= 0 && tileIndex+count <= tileCount){
+            if(count == 0){
+                return;
+            }
+            int firstBank = tileIndex/BANK_TILES;
+            int lastBank = (tileIndex+count-1)/BANK_TILES;
+            // The banks are not prepared for writing yet, as the ones that
+            // are replaced do not have to be loaded or copied.
+            long[] stamps = new long[lastBank-firstBank+1];
+            for(int i=0;i<stamps.length;i++){
+                stamps[i] = b.locks[firstBank+i].writeLock();
+            }
+            try {
+                for(int i=firstBank;i<=lastBank;i++){
+                    int start = Math.max(tileIndex, i*BANK_TILES);
+                    int end = Math.min(tileIndex+count, (i+1)*BANK_TILES);
+                    byte[] bank = snapshot.getBank(i);
+                    if(end-start == BANK_TILES && bank != null){
+                        b.data[i] = bank;
+                        b.shared[i] = true;
+                        continue;
+                    }
+                    prepareWrite(b, i);
+                    int offset = start%BANK_TILES*CHRCodec.RAW_TILE_SIZE;
+                    snapshot.readRaw(i, offset, b.data[i], offset,
+                            (end-start)*CHRCodec.RAW_TILE_SIZE);
+                }
+            } finally {
+                unlockBanks(b, firstBank, stamps);
+            }
+            tilesModified(b, tileIndex, count, CHRChangeCause.EDIT);
+            return;
+        }
+        throw new Exception("Cannot restore tiles!");
+    }
+    
+    private void tilesModified(Banks b, int tileIndex, int count,
+            CHRChangeCause cause) {
+        // The bank locks must not be held here.
+        synchronized(stateLock){
+            if(banks != b){
+                // The data was replaced in the meantime.
+                return;
+            }
+            dirtyTiles.set(tileIndex, tileIndex+count);
+            if(patternRaster != null){
+                patternRaster.invalidate(tileIndex, tileIndex+count-1);
+            }
+            if(index != null){
+                for(int i=tileIndex;i<tileIndex+count;i++){
+                    indexTile(b, i);
+                }
+            }
+        }
+        publishChange(new CHRChange(tileIndex, tileIndex+count-1, cause));
+    }
+    
+    private void publishChange(CHRChange change) {
+        if(eventHandlers.isEmpty()){
+            return;
+        }
+        synchronized(changeLock){
+            if(pendingChange != null){
+                pendingChange = pendingChange.merge(change);
+                return;
+            }
+            pendingChange = change;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                CHRChange change;
+                synchronized(changeLock){
+                    change = pendingChange;
+                    pendingChange = null;
+                }
+                for(CHRDataEvent event : eventHandlers){
+                    event.tilesChanged(change);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Add an event handler to call when some tiles change.
+     * @param event The event handler.
+     */
+    public void addEventHandler(CHRDataEvent event) {
+        eventHandlers.add(event);
+    }
+    
+    /**
+     * Remove an event handler.
+     * @param event The event handler to remove.
+     */
+    public void removeEventHandler(CHRDataEvent event) {
+        eventHandlers.remove(event);
+    }
+    
+    private void indexTile(Banks b, int tileIndex) {
+        byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+        readRawTiles(b, tileIndex, 1, raw, 0);
+        index.setTile(tileIndex, TileIndex.readPlane(raw, 0),
+                TileIndex.readPlane(raw, 8));
+    }
+    
+    private TileIndex getIndex() {
+        // stateLock has to be held.
+        if(index == null){
+            Banks b = banks;
+            index = new TileIndex(b.count*BANK_TILES);
+            for(int i=0;i<b.count*BANK_TILES;i++){
+                indexTile(b, i);
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Find the tiles that have the same content as a tile.
+     * @param tile The tile data.
+     * @return The indices of the tiles, sorted.
+     * @throws Exception Gets thrown if the tile data has a bad size.
+     */
+    public int[] findTile(byte[] tile) throws Exception {
+        if(tile.length != CHRCodec.TILE_SIZE){
+            throw new Exception("Bad tile size!");
+        }
+        byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+        CHRCodec.encodeRange(tile, 0, raw, 0, 1);
+        synchronized(stateLock){
+            return getIndex().find(TileIndex.readPlane(raw, 0),
+                    TileIndex.readPlane(raw, 8));
+        }
+    }
+    
+    /**
+     * Find the tiles that have the same content as a tile, or the same
+     * content once flipped horizontally, vertically or both.
+     * @param tile The tile data.
+     * @return The indices of the tiles, sorted.
+     * @throws Exception Gets thrown if the tile data has a bad size.
+     */
+    public int[] findFlippedTile(byte[] tile) throws Exception {
+        if(tile.length != CHRCodec.TILE_SIZE){
+            throw new Exception("Bad tile size!");
+        }
+        byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+        CHRCodec.encodeRange(tile, 0, raw, 0, 1);
+        synchronized(stateLock){
+            return getIndex().findFlipped(TileIndex.readPlane(raw, 0),
+                    TileIndex.readPlane(raw, 8));
+        }
+    }
+    
+    /**
+     * Find the duplicates of a tile in the pattern table.
+     * @param tileIndex The index of the tile.
+     * @return The indices of the tiles that have the same content, including
+     * tileIndex, sorted.
+     * @throws Exception Gets thrown if the index is out of bounds.
+     */
+    public int[] findDuplicates(int tileIndex) throws Exception {
+        synchronized(stateLock){
+            Banks b = banks;
+            if(tileIndex >= 0 && tileIndex < b.count*BANK_TILES){
+                byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+                readRawTiles(b, tileIndex, 1, raw, 0);
+                return getIndex().find(TileIndex.readPlane(raw, 0),
+                        TileIndex.readPlane(raw, 8));
+            }
+        }
+        throw new Exception("Bad tile index!");
+    }
+    
+    /**
+     * Find the tiles that are the same as a tile once flipped horizontally,
+     * vertically or both, or not flipped.
+     * @param tileIndex The index of the tile.
+     * @return The indices of the tiles, including tileIndex, sorted.
+     * @throws Exception Gets thrown if the index is out of bounds.
+     */
+    public int[] findFlipEquivalents(int tileIndex) throws Exception {
+        synchronized(stateLock){
+            Banks b = banks;
+            if(tileIndex >= 0 && tileIndex < b.count*BANK_TILES){
+                byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+                readRawTiles(b, tileIndex, 1, raw, 0);
+                return getIndex().findFlipped(TileIndex.readPlane(raw, 0),
+                        TileIndex.readPlane(raw, 8));
+            }
+        }
+        throw new Exception("Bad tile index!");
+    }
+    
+    /**
+     * Find the unused tiles, the ones that only contain color 0.
+     * @return The indices of the unused tiles, sorted.
+     */
+    public int[] findUnusedTiles() {
+        synchronized(stateLock){
+            return getIndex().find(0, 0);
+        }
     }
     
     /**
@@ -100,16 +742,8 @@ public class CHRData {
      * @return The tile data.
      */
     public byte[] loadTile(byte[] rawTile) {
-        byte[] out = new byte[8*8];
-        
-        for(byte y=0;y<8;y++){
-            for(byte x=0;x<8;x++){
-                byte byte1 = rawTile[y];
-                byte byte2 = rawTile[y+8];
-                out[y*8+7-x] = (byte)((byte1&1<<x)>>x|(byte2&1<<x)>>x<<1);
-            }
-        }
-        
+        byte[] out = new byte[CHRCodec.TILE_SIZE];
+        CHRCodec.decodeRange(rawTile, 0, out, 0, 1);
         return out;
     }
     
@@ -120,34 +754,245 @@ public class CHRData {
      * @throws Exception Gets thrown if the tile index is out of bounds.
      */
     public void setTile(byte[] tile, int tileIndex) throws Exception {
-        if(tileIndex >= 0 && tileIndex < chrData.length){
-            if(chrData[tileIndex].length == tile.length){
-                chrData[tileIndex] = tile;
-                saveTile(tileIndex);
+        setTiles(tile, 0, tileIndex, 1);
+    }
+    
+    /**
+     * Set multiple consecutive tiles in the CHR data.
+     * The tiles are all set at once for the other threads.
+     * @param tiles The data of the tiles, one after the other.
+     * @param offset The position of the first tile in tiles.
+     * @param tileIndex The position of the first tile in the pattern table.
+     * @param count The number of tiles to set.
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public void setTiles(byte[] tiles, int offset, int tileIndex, int count)
+            throws Exception {
+        Banks b = banks;
+        if(tileIndex >= 0 && count >= 0
+                && tileIndex+count <= b.count*BANK_TILES && offset >= 0
+                && offset+count*CHRCodec.TILE_SIZE <= tiles.length){
+            if(count == 0){
                 return;
             }
+            int firstBank = tileIndex/BANK_TILES;
+            long[] stamps = lockBanks(b, firstBank,
+                    (tileIndex+count-1)/BANK_TILES, true);
+            try {
+                int i = tileIndex;
+                int remaining = count;
+                while(remaining > 0){
+                    int bankTile = i%BANK_TILES;
+                    int n = Math.min(remaining, BANK_TILES-bankTile);
+                    CHRCodec.encodeRange(tiles, offset, b.data[i/BANK_TILES],
+                            bankTile*CHRCodec.RAW_TILE_SIZE, n);
+                    offset += n*CHRCodec.TILE_SIZE;
+                    i += n;
+                    remaining -= n;
+                }
+            } finally {
+                unlockBanks(b, firstBank, stamps);
+            }
+            tilesModified(b, tileIndex, count, CHRChangeCause.EDIT);
+            return;
         }
-        throw new Exception("Cannot set tile!");
+        throw new Exception("Cannot set tiles!");
     }
     
     /**
-     * Save a tile as raw CHR data.
-     * @param tileIndex The index of the tile in the pattern table.
+     * Get multiple consecutive tiles as raw CHR data.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles.
+     * @return The raw CHR data of the tiles (16 bytes per tile).
+     * @throws Exception Gets thrown if the tiles are out of bounds.
      */
-    public void saveTile(int tileIndex) {
-        if(tileIndex >= 0 && tileIndex < chrData.length){
-            for(int y=0;y<8;y++){
-                byte byte1 = 0x00;
-                byte byte2 = 0x00;
-                for(int x=0;x<8;x++){
-                    byte color = chrData[tileIndex][y*8+x];
-                    byte1 |= (color&0b00000001)<<7>>x;
-                    byte2 |= (color&0b00000010)<<6>>x;
+    public byte[] getRawTiles(int tileIndex, int count) throws Exception {
+        Banks b = banks;
+        if(tileIndex >= 0 && count >= 0
+                && tileIndex+count <= b.count*BANK_TILES){
+            byte[] out = new byte[count*CHRCodec.RAW_TILE_SIZE];
+            readRawTiles(b, tileIndex, count, out, 0);
+            return out;
+        }
+        throw new Exception("Bad tile index!");
+    }
+    
+    /**
+     * Set multiple consecutive tiles from raw CHR data.
+     * The tiles are all set at once for the other threads.
+     * @param rawTiles The raw CHR data of the tiles (16 bytes per tile).
+     * @param tileIndex The index of the first tile.
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public void setRawTiles(byte[] rawTiles, int tileIndex) throws Exception {
+        Banks b = banks;
+        int count = rawTiles.length/CHRCodec.RAW_TILE_SIZE;
+        if(tileIndex >= 0 && tileIndex+count <= b.count*BANK_TILES){
+            if(count == 0){
+                return;
+            }
+            int firstBank = tileIndex/BANK_TILES;
+            long[] stamps = lockBanks(b, firstBank,
+                    (tileIndex+count-1)/BANK_TILES, true);
+            try {
+                int offset = 0;
+                int i = tileIndex;
+                while(offset < count*CHRCodec.RAW_TILE_SIZE){
+                    int bankTile = i%BANK_TILES;
+                    int n = Math.min(count-(i-tileIndex),
+                            BANK_TILES-bankTile);
+                    System.arraycopy(rawTiles, offset, b.data[i/BANK_TILES],
+                            bankTile*CHRCodec.RAW_TILE_SIZE,
+                            n*CHRCodec.RAW_TILE_SIZE);
+                    offset += n*CHRCodec.RAW_TILE_SIZE;
+                    i += n;
                 }
-                rawData[tileIndex*16+y] = byte1;
-                rawData[tileIndex*16+8+y] = byte2;
+            } finally {
+                unlockBanks(b, firstBank, stamps);
+            }
+            tilesModified(b, tileIndex, count, CHRChangeCause.EDIT);
+            return;
+        }
+        throw new Exception("Cannot set tiles!");
+    }
+    
+    /**
+     * Apply a transform to multiple consecutive tiles.
+     * The work is split between the threads of the common ForkJoinPool.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles to transform.
+     * @param transform The transform to apply.
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public void transformTiles(int tileIndex, int count,
+            TileTransform transform) throws Exception {
+        Banks b = banks;
+        if(tileIndex >= 0 && count >= 0
+                && tileIndex+count <= b.count*BANK_TILES){
+            if(count == 0){
+                return;
+            }
+            // The tasks use the banks while this thread holds their locks.
+            int firstBank = tileIndex/BANK_TILES;
+            long[] stamps = lockBanks(b, firstBank,
+                    (tileIndex+count-1)/BANK_TILES, true);
+            try {
+                ForkJoinPool.commonPool().invoke(new TransformTask(b.data,
+                        tileIndex, count, transform));
+            } finally {
+                unlockBanks(b, firstBank, stamps);
+            }
+            tilesModified(b, tileIndex, count, CHRChangeCause.TRANSFORM);
+            return;
+        }
+        throw new Exception("Cannot transform tiles!");
+    }
+    
+    private static class TransformTask extends RecursiveAction {
+        private byte[][] data;
+        private int tileIndex;
+        private int count;
+        private TileTransform transform;
+        
+        public TransformTask(byte[][] data, int tileIndex, int count,
+                TileTransform transform) {
+            this.data = data;
+            this.tileIndex = tileIndex;
+            this.count = count;
+            this.transform = transform;
+        }
+        
+        @Override
+        protected void compute() {
+            if(count > TRANSFORM_THRESHOLD){
+                int half = count/2;
+                invokeAll(new TransformTask(data, tileIndex, half, transform),
+                        new TransformTask(data, tileIndex+half, count-half,
+                                transform));
+                return;
+            }
+            byte[] tile = new byte[CHRCodec.TILE_SIZE];
+            byte[] out = new byte[CHRCodec.TILE_SIZE];
+            for(int i=tileIndex;i<tileIndex+count;i++){
+                byte[] bank = data[i/BANK_TILES];
+                int offset = i%BANK_TILES*CHRCodec.RAW_TILE_SIZE;
+                CHRCodec.decodeRange(bank, offset, tile, 0, 1);
+                transform.transform(tile, out);
+                CHRCodec.encodeRange(out, 0, bank, offset, 1);
+            }
+        }
+    }
+    
+    /**
+     * Get the color of a pixel of a tile.
+     * The pixel is directly read from the raw CHR data.
+     * @param tileIndex The index of the tile.
+     * @param x The position of the pixel in the tile.
+     * @param y The position of the pixel in the tile.
+     * @return The color of the pixel (0-3).
+     * @throws Exception Gets thrown if the tile index or the position of the
+     * pixel is out of bounds.
+     */
+    public int getPixel(int tileIndex, int x, int y) throws Exception {
+        Banks b = banks;
+        if(tileIndex < 0 || tileIndex >= b.count*BANK_TILES || x < 0 || x >= 8
+                || y < 0 || y >= 8){
+            throw new Exception("Cannot get pixel!");
+        }
+        return readPixel(b, tileIndex, x, y);
+    }
+    
+    private int readPixel(Banks b, int tileIndex, int x, int y) {
+        int bank = tileIndex/BANK_TILES;
+        int offset = tileIndex%BANK_TILES*CHRCodec.RAW_TILE_SIZE;
+        StampedLock lock = b.locks[bank];
+        long stamp = lock.tryOptimisticRead();
+        byte[] data = b.data[bank];
+        if(data != null){
+            int color = CHRCodec.getPixel(data, offset, x, y);
+            if(lock.validate(stamp)){
+                return color;
+            }
+        }
+        stamp = readLock(b, bank);
+        try {
+            return CHRCodec.getPixel(b.data[bank], offset, x, y);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Set the color of a pixel of a tile.
+     * The pixel is directly written to the raw CHR data.
+     * @param tileIndex The index of the tile.
+     * @param x The position of the pixel in the tile.
+     * @param y The position of the pixel in the tile.
+     * @param color The color of the pixel (0-3).
+     * @throws Exception Gets thrown if the tile index is out of bounds.
+     */
+    public void setPixel(int tileIndex, int x, int y, int color)
+            throws Exception {
+        Banks b = banks;
+        if(tileIndex >= 0 && tileIndex < b.count*BANK_TILES && x >= 0
+                && x < 8 && y >= 0 && y < 8){
+            int bankIndex = tileIndex/BANK_TILES;
+            long stamp = writeLock(b, bankIndex);
+            try {
+                byte[] bank = b.data[bankIndex];
+                int mask = 0x80>>x;
+                int pos = tileIndex%BANK_TILES*CHRCodec.RAW_TILE_SIZE+y;
+                bank[pos] = (byte)((color&1) != 0 ? bank[pos]|mask :
+                        bank[pos]&~mask);
+                bank[pos+8] = (byte)((color&2) != 0 ? bank[pos+8]|mask :
+                        bank[pos+8]&~mask);
+            } finally {
+                b.locks[bankIndex].unlockWrite(stamp);
             }
+            tilesModified(b, tileIndex, 1, CHRChangeCause.EDIT);
+            return;
         }
+        throw new Exception("Cannot set pixel!");
     }
     
     /**
@@ -156,37 +1001,74 @@ public class CHRData {
      * @param palette The palette to use.
      * @param scale The scale of the image.
      * @return Returns the BufferedImage.
+     * @deprecated The views draw the tiles from the PatternRaster, or with a
+     * TileRasterizer into their own images, instead of drawing one image per
+     * tile. It is only kept for the plugins that still use it.
      */
+    @Deprecated
     public BufferedImage generateTileImage(int tileIndex, int[][] palette,
             int scale) {
         BufferedImage image = new BufferedImage(8*scale, 8*scale,
                 BufferedImage.TYPE_INT_RGB);
-        if(tileIndex >= 0 && tileIndex < chrBanks*256) {
-            for(int y=0;y<8;y++){
-                for(int x=0;x<8;x++){
-                    int colorNum = chrData[tileIndex][y*8+x]&0b00000011;
-                    int color = (palette[colorNum][0] << 16)
-                            |(palette[colorNum][1] << 8)|palette[colorNum][2];
-                    for(int sy=0;sy<scale;sy++){
-                        for(int sx=0;sx<scale;sx++){
-                            image.setRGB(x*scale+sx, y*scale+sy, color);
-                        }
-                    }
-                }
-            }
+        Banks b = banks;
+        if(tileIndex < 0 || tileIndex >= b.count*BANK_TILES){
+            return image;
         }
+        byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+        readRawTiles(b, tileIndex, 1, raw, 0);
+        TileRasterizer.drawTile(raw, 0, TileRasterizer.getColors(palette),
+                image, 0, 0, scale);
         return image;
     }
     
+    /**
+     * Get the image of the whole pattern table.
+     * It is shared by all the views of this CHR data, and replaced when other
+     * data is loaded.
+     * @return The image, with 2 bits per pixel.
+     */
+    public PatternRaster getPatternRaster() {
+        synchronized(stateLock){
+            if(patternRaster == null){
+                patternRaster = new PatternRaster(this, banks.count);
+            }
+            return patternRaster;
+        }
+    }
+    
     /**
      * Get the tile data.
+     * The tile is decoded from the raw CHR data, so modifying the returned
+     * array does not modify the pattern table, use setTile for that.
      * @param tileIndex The index of the tile.
      * @return The tile data.
      * @throws Exception Gets thrown if the index is out of bounds.
      */
     public byte[] getTile(int tileIndex) throws Exception {
-        if(tileIndex >= 0 && tileIndex < chrBanks*256) {
-            return chrData[tileIndex];
+        byte[] tile = new byte[CHRCodec.TILE_SIZE];
+        getTiles(tileIndex, 1, tile, 0);
+        return tile;
+    }
+    
+    /**
+     * Decode multiple consecutive tiles of the CHR data.
+     * The tiles are all read at once, as they were at a single moment.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles to decode.
+     * @param out The array to decode the tiles to.
+     * @param offset The position to decode the first tile at in out.
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public void getTiles(int tileIndex, int count, byte[] out, int offset)
+            throws Exception {
+        Banks b = banks;
+        if(tileIndex >= 0 && count >= 0
+                && tileIndex+count <= b.count*BANK_TILES && offset >= 0
+                && offset+count*CHRCodec.TILE_SIZE <= out.length){
+            byte[] raw = new byte[count*CHRCodec.RAW_TILE_SIZE];
+            readRawTiles(b, tileIndex, count, raw, 0);
+            CHRCodec.decodeRange(raw, 0, out, offset, count);
+            return;
         }
         throw new Exception("Bad tile index!");
     }
@@ -199,10 +1081,11 @@ public class CHRData {
      */
     public void printTile(int tileIndex) {
         char[] colorChars = {' ', '#', '$', '%'};
-        if(tileIndex >= 0 && tileIndex < chrBanks*256) {
+        Banks b = banks;
+        if(tileIndex >= 0 && tileIndex < b.count*BANK_TILES) {
             for(int y=0;y<8;y++){
                 for(int x=0;x<8;x++){
-                    int colorNum = chrData[tileIndex][y*8+x]&0b00000011;
+                    int colorNum = readPixel(b, tileIndex, x, y);
                     System.out.print(colorChars[colorNum]);
                 }
                 System.out.println();
@@ -215,6 +1098,46 @@ public class CHRData {
      * @return The number of CHR banks.
      */
     public int getChrBanks() {
-        return chrBanks;
+        return banks.count;
+    }
+    
+    /**
+     * The CHR banks and their locks.
+     */
+    private static class Banks {
+        private final int count;
+        // The banks that were not used yet are null and still in the mapping.
+        // An element is only accessed while holding the lock of its bank.
+        private final byte[][] data;
+        private final StampedLock[] locks;
+        // The banks that are used by snapshots, they are copied before being
+        // modified.
+        private final boolean[] shared;
+        // Null once all the banks were read, before the mapped file gets
+        // replaced.
+        private volatile ByteBuffer mapping;
+        // The banks that snapshots read from the mapping, the mapped file
+        // can't be modified in place anymore where they are stored.
+        private final BitSet mappedShared;
+        // False once the file the data is saved to is not the mapped file
+        // anymore.
+        private volatile boolean fileMapped;
+        // Bytes at the end of the file that do not form a complete CHR bank,
+        // they are kept to save them back.
+        private final byte[] trailer;
+        
+        public Banks(int count, ByteBuffer mapping, byte[] trailer) {
+            this.count = count;
+            data = new byte[count][];
+            locks = new StampedLock[count];
+            shared = new boolean[count];
+            for(int i=0;i<count;i++){
+                locks[i] = new StampedLock();
+            }
+            this.mapping = mapping;
+            mappedShared = new BitSet();
+            fileMapped = mapping != null;
+            this.trailer = trailer;
+        }
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+/**
+ * Methods that get called when CHR data changes.
+ * @author mibi88
+ */
+public interface CHRDataEvent {
+
+    /**
+     * Gets called on the event dispatch thread after some tiles changed.
+     * All the changes made before the event dispatch thread could handle
+     * them are merged in a single call.
+     * @param change The tiles that changed.
+     */
+    public void tilesChanged(CHRChange change);
+}
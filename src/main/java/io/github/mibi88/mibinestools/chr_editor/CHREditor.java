@@ -18,16 +18,21 @@
 package io.github.mibi88.mibinestools.chr_editor;
 
 import io.github.mibi88.mibinestools.Editor;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.palette_editor.PaletteEditor;
 import io.github.mibi88.mibinestools.Window;
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.io.File;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
+import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.UndoManager;
 
 /**
@@ -43,8 +48,10 @@ public class CHREditor extends Editor {
     private JSplitPane splitPane;
     private JTabbedPane editorPane;
     
+    private JPanel patternTablePanel;
     private JScrollPane patternTablePane;
     private PatternTable patternTable;
+    private TransformToolbar transformToolbar;
     
     private TileEditor tileEditor;
     
@@ -84,7 +91,11 @@ public class CHREditor extends Editor {
         initPatternTable();
         patternTablePane = new JScrollPane(patternTable);
         patternTablePane.revalidate();
-        patternTablePane.setMinimumSize(new Dimension(300, 0));
+        transformToolbar = new TransformToolbar(this);
+        patternTablePanel = new JPanel(new BorderLayout());
+        patternTablePanel.add(transformToolbar, BorderLayout.NORTH);
+        patternTablePanel.add(patternTablePane, BorderLayout.CENTER);
+        patternTablePanel.setMinimumSize(new Dimension(300, 0));
         tileEditor = new TileEditor(32, currentPalette,
                 (byte)1, this);
         paletteEditor = new PaletteEditor(currentPalette,
@@ -95,7 +106,7 @@ public class CHREditor extends Editor {
         editorPane.addTab("Palette Editor", paletteEditor);
         editorPane.setMinimumSize(new Dimension(250, 0));
         splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, false,
-                patternTablePane, editorPane);
+                patternTablePanel, editorPane);
         
         add(splitPane);
     }
@@ -184,7 +195,6 @@ public class CHREditor extends Editor {
     public boolean newFile() {
         if(super.newFile()){
             chrData.resetCHRData(2);
-            chrData.resetRawData(2);
             patternTable.reset();
             tileEditor.reset();
             paletteEditor.reset();
@@ -202,10 +212,13 @@ public class CHREditor extends Editor {
      */
     public void updateTile(byte[] data, int tx, int ty) {
         try {
-            chrData.setTile(data, ty*16+tx);
-            patternTable.repaint();
-            if(tileEditor.getTileX() == tx && tileEditor.getTileY() == ty){
-                tileEditor.loadTile(data, tx, ty);
+            // The tools call this method every time the mouse moves, only
+            // notify the views when the tile really changed.
+            if(!Arrays.equals(chrData.getTile(ty*16+tx), data)){
+                chrData.setTile(data, ty*16+tx);
+                if(tileEditor.getTileX() == tx && tileEditor.getTileY() == ty){
+                    tileEditor.loadTile(chrData.getTile(ty*16+tx), tx, ty);
+                }
             }
             fileEdited();
         } catch (Exception ex) {
@@ -214,6 +227,65 @@ public class CHREditor extends Editor {
         }
     }
     
+    /**
+     * Update multiple consecutive tiles in the pattern table.
+     * @param snapshot The snapshot containing the tiles.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles.
+     */
+    public void updateTiles(CHRSnapshot snapshot, int tileIndex, int count) {
+        try {
+            chrData.restore(snapshot, tileIndex, count);
+            tilesChanged();
+        } catch (Exception ex) {
+            Logger.getLogger(CHREditor.class.getName()).log(
+                    Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Apply a transform to multiple consecutive tiles.
+     * It adds a single edit to the undoManager.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles to transform.
+     * @param transform The transform to apply.
+     */
+    public void transformTiles(int tileIndex, int count,
+            TileTransform transform) {
+        try {
+            CHRSnapshot oldData = chrData.snapshot();
+            chrData.transformTiles(tileIndex, count, transform);
+            CHRSnapshot newData = chrData.snapshot();
+            addEdit(new CHRBulkEdit(this, oldData, newData, tileIndex,
+                    count));
+            tilesChanged();
+        } catch (Exception ex) {
+            Logger.getLogger(CHREditor.class.getName()).log(
+                    Level.SEVERE, null, ex);
+        }
+    }
+    
+    private void tilesChanged() {
+        loadSelectedTile(tileEditor.getTileX(), tileEditor.getTileY());
+        fileEdited();
+    }
+    
+    /**
+     * Get the index of the tile selected in the pattern table.
+     * @return The index of the selected tile.
+     */
+    public int getSelectedTile() {
+        return patternTable.getSelectedY()*16+patternTable.getSelectedX();
+    }
+    
+    /**
+     * Get the CHR data edited in this editor.
+     * @return The CHR data.
+     */
+    public CHRData getCHRData() {
+        return chrData;
+    }
+    
     /**
      * Enable or disable the grid in tilemaps etc.
      * @param grid True if the grid should be displayed.
@@ -226,6 +298,25 @@ public class CHREditor extends Editor {
         }
     }
     
+    /**
+     * Enable or disable the accelerated rendering.
+     * @param accelerated True if the content should be accelerated.
+     */
+    @Override
+    public void setAccelerated(boolean accelerated) {
+        tileEditor.setAccelerated(accelerated);
+    }
+    
+    /**
+     * Get the time spent painting the pattern table and the tile.
+     * @return The paint statistics.
+     */
+    @Override
+    public PaintStats[] getPaintStats() {
+        return new PaintStats[]{patternTable.getPaintStats(),
+            tileEditor.getPaintStats()};
+    }
+    
     /**
      * Set the scale of the content.
      * @param scale The scale.
@@ -261,7 +352,7 @@ public class CHREditor extends Editor {
      * Add an edit to the undoManager.
      * @param edit The edit to add.
      */
-    public void addEdit(CHREdit edit) {
+    public void addEdit(AbstractUndoableEdit edit) {
         undoManager.addEdit(edit);
     }
     
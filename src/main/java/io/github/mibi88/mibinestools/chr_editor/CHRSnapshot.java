@@ -0,0 +1,164 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The state of a pattern table at a given moment, created with
+ * CHRData.snapshot.
+ * It shares the CHR banks with the CHRData it comes from, the CHRData copies
+ * a bank before it gets modified. A snapshot never changes, so it can be used
+ * from any thread.
+ * @author mibi88
+ */
+public final class CHRSnapshot {
+    // The banks that were not loaded when the snapshot was created are null
+    // and read from the mapping.
+    private final byte[][] banks;
+    private final ByteBuffer mapping;
+    private final byte[] trailer;
+    
+    CHRSnapshot(byte[][] banks, ByteBuffer mapping, byte[] trailer) {
+        this.banks = banks;
+        this.mapping = mapping;
+        this.trailer = trailer;
+    }
+    
+    /**
+     * Get the number of CHR banks in the snapshot.
+     * @return The number of CHR banks.
+     */
+    public int getChrBanks() {
+        return banks.length;
+    }
+    
+    /**
+     * Get a CHR bank without copying it.
+     * @param bank The CHR bank.
+     * @return The raw data of the bank, or null if it is still in the mapped
+     * file.
+     */
+    byte[] getBank(int bank) {
+        return banks[bank];
+    }
+    
+    /**
+     * Copy raw CHR data of a bank.
+     * @param bank The CHR bank.
+     * @param offset The position of the data in the bank.
+     * @param out The array to copy the data to.
+     * @param outOffset The position to copy the data at in out.
+     * @param length The number of bytes to copy.
+     */
+    void readRaw(int bank, int offset, byte[] out, int outOffset,
+            int length) {
+        if(banks[bank] != null){
+            System.arraycopy(banks[bank], offset, out, outOffset, length);
+            return;
+        }
+        ByteBuffer buffer = mapping.duplicate();
+        buffer.position(bank*CHRData.BANK_SIZE+offset);
+        buffer.get(out, outOffset, length);
+    }
+    
+    /**
+     * Get multiple consecutive tiles as raw CHR data.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles.
+     * @return The raw CHR data of the tiles (16 bytes per tile).
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public byte[] getRawTiles(int tileIndex, int count) throws Exception {
+        if(tileIndex >= 0 && count >= 0
+                && tileIndex+count <= banks.length*CHRData.BANK_TILES){
+            byte[] out = new byte[count*CHRCodec.RAW_TILE_SIZE];
+            int offset = 0;
+            while(count > 0){
+                int bankTile = tileIndex%CHRData.BANK_TILES;
+                int n = Math.min(count, CHRData.BANK_TILES-bankTile);
+                readRaw(tileIndex/CHRData.BANK_TILES,
+                        bankTile*CHRCodec.RAW_TILE_SIZE, out, offset,
+                        n*CHRCodec.RAW_TILE_SIZE);
+                offset += n*CHRCodec.RAW_TILE_SIZE;
+                tileIndex += n;
+                count -= n;
+            }
+            return out;
+        }
+        throw new Exception("Bad tile index!");
+    }
+    
+    /**
+     * Decode multiple consecutive tiles.
+     * @param tileIndex The index of the first tile.
+     * @param count The number of tiles to decode.
+     * @param out The array to decode the tiles to.
+     * @param offset The position to decode the first tile at in out.
+     * @throws Exception Gets thrown if the tiles are out of bounds.
+     */
+    public void getTiles(int tileIndex, int count, byte[] out, int offset)
+            throws Exception {
+        if(offset < 0 || offset+count*CHRCodec.TILE_SIZE > out.length){
+            throw new Exception("Bad tile index!");
+        }
+        CHRCodec.decodeRange(getRawTiles(tileIndex, count), 0, out, offset,
+                count);
+    }
+    
+    /**
+     * Get the tile data.
+     * @param tileIndex The index of the tile.
+     * @return The tile data.
+     * @throws Exception Gets thrown if the index is out of bounds.
+     */
+    public byte[] getTile(int tileIndex) throws Exception {
+        byte[] tile = new byte[CHRCodec.TILE_SIZE];
+        getTiles(tileIndex, 1, tile, 0);
+        return tile;
+    }
+    
+    /**
+     * Write the whole pattern table, as it would be saved in a file.
+     * @param channel The channel to write the data to.
+     * @throws IOException Gets thrown if the data could not be written.
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        for(int i=0;i<banks.length;i++){
+            ByteBuffer buffer;
+            if(banks[i] != null){
+                buffer = ByteBuffer.wrap(banks[i]);
+            }else{
+                buffer = mapping.duplicate();
+                buffer.position(i*CHRData.BANK_SIZE);
+                buffer.limit((i+1)*CHRData.BANK_SIZE);
+            }
+            writeFully(channel, buffer);
+        }
+        writeFully(channel, ByteBuffer.wrap(trailer));
+    }
+    
+    private void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads raw CHR tiles (16 bytes each) from a channel, without loading all the
+ * data in memory.
+ * It can read tiles from streams of any size, like concatenated dumps or the
+ * standard input. Bytes at the end of the stream that do not form a complete
+ * tile are ignored.
+ * When the channel is a FileChannel of a regular file, the spliterator reads
+ * the file with positional reads, so that the tiles can be processed in
+ * parallel.
+ * @author mibi88
+ */
+public class CHRTileReader implements Iterator<byte[]>, Closeable {
+    // The number of tiles read from the channel at once.
+    private static final int BUFFER_TILES = 256;
+    
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private boolean end;
+    private long tileCount;
+    
+    /**
+     * Create a new tile reader.
+     * @param channel The channel to read the tiles from.
+     */
+    public CHRTileReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(BUFFER_TILES*CHRCodec.RAW_TILE_SIZE);
+        buffer.flip();
+        end = false;
+        tileCount = 0;
+    }
+    
+    private boolean fill() throws IOException {
+        // Make sure that there is at least one complete tile in the buffer.
+        if(buffer.remaining() >= CHRCodec.RAW_TILE_SIZE){
+            return true;
+        }
+        buffer.compact();
+        while(!end && buffer.position() < CHRCodec.RAW_TILE_SIZE){
+            if(channel.read(buffer) < 0){
+                end = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= CHRCodec.RAW_TILE_SIZE;
+    }
+    
+    /**
+     * Read raw tiles.
+     * @param raw The array to store the raw tiles in.
+     * @param offset The position to store the first tile at in raw.
+     * @param count The maximum number of tiles to read.
+     * @return The number of tiles that were read, 0 at the end of the
+     * stream.
+     * @throws IOException Gets thrown if the channel could not be read.
+     */
+    public int readRawTiles(byte[] raw, int offset, int count)
+            throws IOException {
+        int n = 0;
+        while(n < count && fill()){
+            int tiles = Math.min(count-n,
+                    buffer.remaining()/CHRCodec.RAW_TILE_SIZE);
+            buffer.get(raw, offset+n*CHRCodec.RAW_TILE_SIZE,
+                    tiles*CHRCodec.RAW_TILE_SIZE);
+            n += tiles;
+        }
+        tileCount += n;
+        return n;
+    }
+    
+    /**
+     * Read tiles and decode them.
+     * @param tiles The array to decode the tiles to (64 bytes per tile).
+     * @param offset The position to decode the first tile at in tiles.
+     * @param count The maximum number of tiles to read.
+     * @return The number of tiles that were read, 0 at the end of the
+     * stream.
+     * @throws IOException Gets thrown if the channel could not be read.
+     */
+    public int readTiles(byte[] tiles, int offset, int count)
+            throws IOException {
+        int n = 0;
+        while(n < count && fill()){
+            int bufferTiles = Math.min(count-n,
+                    buffer.remaining()/CHRCodec.RAW_TILE_SIZE);
+            CHRCodec.decodeRange(buffer, buffer.position(), tiles,
+                    offset+n*CHRCodec.TILE_SIZE, bufferTiles);
+            buffer.position(buffer.position()
+                    +bufferTiles*CHRCodec.RAW_TILE_SIZE);
+            n += bufferTiles;
+        }
+        tileCount += n;
+        return n;
+    }
+    
+    /**
+     * Get the number of tiles read until now.
+     * @return The number of tiles.
+     */
+    public long getTileCount() {
+        return tileCount;
+    }
+    
+    /**
+     * Check if there is another tile to read.
+     * @return Returns true if there is another tile.
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            return fill();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Read the next tile.
+     * @return The raw data of the tile (16 bytes).
+     */
+    @Override
+    public byte[] next() {
+        byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+        try {
+            if(readRawTiles(raw, 0, 1) == 0){
+                throw new NoSuchElementException();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return raw;
+    }
+    
+    /**
+     * Get a spliterator over the remaining tiles.
+     * If the channel is a FileChannel, the tiles from its current position to
+     * its end are read with positional reads and the spliterator can be
+     * split, unless the channel can't seek, like a pipe. The reader should
+     * not be used anymore after calling it.
+     * @return The spliterator.
+     * @throws IOException Gets thrown on failure.
+     */
+    public Spliterator<byte[]> spliterator() throws IOException {
+        if(channel instanceof FileChannel){
+            FileChannel file = (FileChannel)channel;
+            long start;
+            long size;
+            try {
+                // The tiles that are already in the buffer were read from
+                // before the position of the channel.
+                start = file.position()-buffer.remaining();
+                size = file.size();
+            } catch (IOException ex) {
+                // A FileChannel of a pipe can't seek, it is read like any
+                // other channel.
+                start = -1;
+                size = -1;
+            }
+            if(start >= 0 && size >= start){
+                return new FileSpliterator(file, start,
+                        start+(size-start)/CHRCodec.RAW_TILE_SIZE
+                                *CHRCodec.RAW_TILE_SIZE);
+            }
+        }
+        return Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED|Spliterator.NONNULL);
+    }
+    
+    /**
+     * Get a stream of the remaining tiles.
+     * The reader should not be used anymore after calling it.
+     * @param parallel If the stream should be parallel.
+     * @return The stream of raw tiles (16 bytes each).
+     * @throws IOException Gets thrown if the size of the file could not be
+     * read.
+     */
+    public Stream<byte[]> stream(boolean parallel) throws IOException {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+    
+    /**
+     * Close the channel.
+     * @throws IOException Gets thrown if the channel could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * Reads a range of tiles of a file, it can be split in two halves.
+     */
+    private static class FileSpliterator implements Spliterator<byte[]> {
+        private FileChannel channel;
+        // The position of the next tile to read, and the end of the range.
+        private long position;
+        private long end;
+        private ByteBuffer buffer;
+        
+        public FileSpliterator(FileChannel channel, long position,
+                long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super byte[]> action) {
+            if(position >= end){
+                return false;
+            }
+            if(buffer == null){
+                buffer = ByteBuffer.allocate(
+                        BUFFER_TILES*CHRCodec.RAW_TILE_SIZE);
+                buffer.flip();
+            }
+            if(!buffer.hasRemaining()){
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), end-position));
+                try {
+                    while(buffer.hasRemaining()){
+                        if(channel.read(buffer,
+                                position+buffer.position()) < 0){
+                            throw new IOException("Unexpected end of file!");
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                buffer.flip();
+            }
+            byte[] raw = new byte[CHRCodec.RAW_TILE_SIZE];
+            buffer.get(raw);
+            position += CHRCodec.RAW_TILE_SIZE;
+            action.accept(raw);
+            return true;
+        }
+        
+        @Override
+        public Spliterator<byte[]> trySplit() {
+            long tiles = (end-position)/CHRCodec.RAW_TILE_SIZE;
+            if(tiles <= BUFFER_TILES){
+                return null;
+            }
+            // Drop the tiles that were read in advance, this spliterator now
+            // stops at the middle.
+            if(buffer != null){
+                buffer.clear();
+                buffer.flip();
+            }
+            long middle = position+tiles/2*CHRCodec.RAW_TILE_SIZE;
+            Spliterator<byte[]> prefix = new FileSpliterator(channel,
+                    position, middle);
+            position = middle;
+            return prefix;
+        }
+        
+        @Override
+        public long estimateSize() {
+            return (end-position)/CHRCodec.RAW_TILE_SIZE;
+        }
+        
+        @Override
+        public int characteristics() {
+            // The file may be modified while it is read, by the editor or by
+            // another program, so it is not IMMUTABLE.
+            return ORDERED|NONNULL|SIZED|SUBSIZED;
+        }
+    }
+}
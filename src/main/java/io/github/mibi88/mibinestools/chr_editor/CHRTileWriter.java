@@ -0,0 +1,143 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes raw CHR tiles (16 bytes each) to a channel, without keeping them in
+ * memory.
+ * The tiles are buffered, flush has to be called to make sure that they
+ * were all written.
+ * @author mibi88
+ */
+public class CHRTileWriter implements Flushable, Closeable {
+    // The number of tiles written to the channel at once.
+    private static final int BUFFER_TILES = 256;
+    
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long tileCount;
+    
+    /**
+     * Create a new tile writer.
+     * @param channel The channel to write the tiles to.
+     */
+    public CHRTileWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(BUFFER_TILES*CHRCodec.RAW_TILE_SIZE);
+        tileCount = 0;
+    }
+    
+    /**
+     * Write raw tiles.
+     * @param raw The raw tiles.
+     * @param offset The position of the first tile in raw.
+     * @param count The number of tiles to write.
+     * @throws IOException Gets thrown if the channel could not be written to.
+     */
+    public void writeRawTiles(byte[] raw, int offset, int count)
+            throws IOException {
+        while(count > 0){
+            if(!buffer.hasRemaining()){
+                flushBuffer();
+            }
+            int n = Math.min(count,
+                    buffer.remaining()/CHRCodec.RAW_TILE_SIZE);
+            buffer.put(raw, offset, n*CHRCodec.RAW_TILE_SIZE);
+            offset += n*CHRCodec.RAW_TILE_SIZE;
+            count -= n;
+            tileCount += n;
+        }
+    }
+    
+    /**
+     * Encode tiles and write them.
+     * @param tiles The tiles (64 bytes per tile, one byte per pixel).
+     * @param offset The position of the first tile in tiles.
+     * @param count The number of tiles to write.
+     * @throws IOException Gets thrown if the channel could not be written to.
+     */
+    public void writeTiles(byte[] tiles, int offset, int count)
+            throws IOException {
+        while(count > 0){
+            if(!buffer.hasRemaining()){
+                flushBuffer();
+            }
+            int n = Math.min(count,
+                    buffer.remaining()/CHRCodec.RAW_TILE_SIZE);
+            CHRCodec.encodeRange(tiles, offset, buffer, buffer.position(), n);
+            buffer.position(buffer.position()+n*CHRCodec.RAW_TILE_SIZE);
+            offset += n*CHRCodec.TILE_SIZE;
+            count -= n;
+            tileCount += n;
+        }
+    }
+    
+    /**
+     * Encode a tile and write it.
+     * @param tile The tile (64 bytes, one byte per pixel).
+     * @throws IOException Gets thrown if the channel could not be written to.
+     */
+    public void writeTile(byte[] tile) throws IOException {
+        writeTiles(tile, 0, 1);
+    }
+    
+    /**
+     * Get the number of tiles written until now.
+     * @return The number of tiles.
+     */
+    public long getTileCount() {
+        return tileCount;
+    }
+    
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Write the buffered tiles to the channel.
+     * @throws IOException Gets thrown if the channel could not be written to.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+    
+    /**
+     * Write the buffered tiles and close the channel.
+     * @throws IOException Gets thrown if the channel could not be written to
+     * or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.BitSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The whole pattern table as an image of color indices, with 2 bits per
+ * pixel.
+ * The CHR banks are placed one under the other, 16 tiles per row. The image
+ * is drawn with an IndexColorModel made from a palette, so changing the
+ * palette does not require drawing the tiles again.
+ * The tiles are only converted when they are needed, and again after they
+ * were modified.
+ * @author mibi88
+ */
+public class PatternRaster {
+    // The width of the image in pixels, and the length of a line in bytes.
+    private static final int WIDTH = 16*8;
+    private static final int STRIDE = WIDTH*2/8;
+    
+    private CHRData chrData;
+    private int chrBanks;
+    private WritableRaster raster;
+    private byte[] data;
+    // The tiles that have to be converted again.
+    private BitSet stale;
+    
+    /**
+     * Create the image of a pattern table.
+     * @param chrData The CHR data of the pattern table.
+     * @param chrBanks The number of CHR banks in the pattern table.
+     */
+    PatternRaster(CHRData chrData, int chrBanks) {
+        this.chrData = chrData;
+        this.chrBanks = chrBanks;
+        int height = Math.max(chrBanks, 1)*16*8;
+        raster = Raster.createWritableRaster(new MultiPixelPackedSampleModel(
+                DataBufferByte.TYPE_BYTE, WIDTH, height, 2), null);
+        data = ((DataBufferByte)raster.getDataBuffer()).getData();
+        stale = new BitSet();
+        stale.set(0, chrBanks*CHRData.BANK_TILES);
+    }
+    
+    /**
+     * Mark some tiles as modified.
+     * @param firstTile The index of the first tile.
+     * @param lastTile The index of the last tile.
+     */
+    synchronized void invalidate(int firstTile, int lastTile) {
+        stale.set(firstTile, lastTile+1);
+    }
+    
+    /**
+     * Convert the tiles of some CHR banks that were modified since they were
+     * last converted.
+     * @param firstBank The first CHR bank.
+     * @param lastBank The last CHR bank.
+     */
+    public synchronized void update(int firstBank, int lastBank) {
+        int end = Math.min(lastBank+1, chrBanks)*CHRData.BANK_TILES;
+        int start = stale.nextSetBit(Math.max(firstBank, 0)
+                *CHRData.BANK_TILES);
+        try {
+            while(start >= 0 && start < end){
+                int stop = Math.min(stale.nextClearBit(start), end);
+                // The tiles are cleared before being read, so that a tile
+                // modified in the meantime will be converted again.
+                stale.clear(start, stop);
+                byte[] raw = chrData.getRawTiles(start, stop-start);
+                for(int i=start;i<stop;i++){
+                    int offset = (i-start)*CHRCodec.RAW_TILE_SIZE;
+                    int pos = i/16*8*STRIDE+i%16*2;
+                    for(int y=0;y<8;y++){
+                        int row = CHRCodec.packRow(raw[offset+y],
+                                raw[offset+8+y]);
+                        data[pos] = (byte)(row>>8);
+                        data[pos+1] = (byte)row;
+                        pos += STRIDE;
+                    }
+                }
+                start = stale.nextSetBit(stop);
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(PatternRaster.class.getName()).log(Level.SEVERE,
+                    null, ex);
+        }
+    }
+    
+    /**
+     * Get the raster of the image.
+     * Only the tiles of the CHR banks passed to update are up to date.
+     * @return The raster.
+     */
+    public WritableRaster getRaster() {
+        return raster;
+    }
+    
+    /**
+     * Create an image that displays the pattern table with a palette.
+     * The image shares the raster, so it does not have to be created again
+     * when the tiles change.
+     * @param palette The palette to use.
+     * @return The image.
+     */
+    public BufferedImage createImage(int[][] palette) {
+        return new BufferedImage(createColorModel(palette), raster, false,
+                null);
+    }
+    
+    /**
+     * Create a color model from a palette.
+     * @param palette The palette.
+     * @return The color model, with 2 bits per pixel.
+     */
+    public static IndexColorModel createColorModel(int[][] palette) {
+        byte[] r = new byte[4];
+        byte[] g = new byte[4];
+        byte[] b = new byte[4];
+        for(int i=0;i<4;i++){
+            r[i] = (byte)palette[i][0];
+            g[i] = (byte)palette[i][1];
+            b[i] = (byte)palette[i][2];
+        }
+        return new IndexColorModel(2, 4, r, g, b);
+    }
+}
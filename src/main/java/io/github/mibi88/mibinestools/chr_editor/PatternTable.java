@@ -17,13 +17,17 @@
  */
 package io.github.mibi88.mibinestools.chr_editor;
 
+import io.github.mibi88.mibinestools.GridLayer;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.chr_editor.CHRData;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import javax.swing.JPanel;
 
 /**
@@ -39,6 +43,14 @@ public class PatternTable extends JPanel {
     private int selectedX, selectedY;
     private int startChrBank;
     private int displayedChrBanks;
+    private CHRDataEvent chrEvent;
+    // The pattern table drawn with the palette, it only has to be created
+    // again when the palette or the raster changes.
+    private PatternRaster patternRaster;
+    private BufferedImage image;
+    private int[] imageColors;
+    private PaintStats paintStats;
+    private GridLayer gridLayer;
 
     /**
      * Creates a pattern table widget.
@@ -59,13 +71,57 @@ public class PatternTable extends JPanel {
         this.grid = grid;
         this.startChrBank = startChrBank;
         this.displayedChrBanks = displayedChrBanks;
+        paintStats = new PaintStats("Pattern table");
+        gridLayer = new GridLayer(Color.GRAY);
+        chrEvent = new CHRDataEvent() {
+            @Override
+            public void tilesChanged(CHRChange change) {
+                if(change.getCause() == CHRChangeCause.RELOAD){
+                    updateSize();
+                    revalidate();
+                    repaint();
+                }else{
+                    repaintTiles(change.getFirstTile(), change.getLastTile());
+                }
+            }
+        };
+        chrData.addEventHandler(chrEvent);
+        updateSize();
+        repaint();
+        handleMouse();
+    }
+    
+    private int getDisplayedChrBanks() {
         int chrBanks = displayedChrBanks == 0 ?
                 chrData.getChrBanks() : displayedChrBanks;
-        chrBanks = Math.min(chrBanks, chrData.getChrBanks());
-        Dimension size = new Dimension(scale*8*16+16, scale*8*16*chrBanks+16);
+        return Math.min(chrBanks, chrData.getChrBanks());
+    }
+    
+    private void updateSize() {
+        Dimension size = new Dimension(scale*8*16+16,
+                scale*8*16*getDisplayedChrBanks()+16);
         setPreferredSize(size);
-        repaint();
-        handleMouse();
+    }
+    
+    private void repaintTiles(int firstTile, int lastTile) {
+        int start = Math.min(startChrBank, chrData.getChrBanks()-1)*256;
+        int end = start+getDisplayedChrBanks()*256-1;
+        firstTile = Math.max(firstTile, start)-start;
+        lastTile = Math.min(lastTile, end)-start;
+        if(firstTile > lastTile){
+            return;
+        }
+        int firstRow = firstTile/16;
+        int lastRow = lastTile/16;
+        // The extra pixel includes the grid and selection lines at the right
+        // and at the bottom of the tiles.
+        if(firstRow == lastRow){
+            repaint(firstTile%16*8*scale, firstRow*8*scale,
+                    (lastTile-firstTile+1)*8*scale+1, 8*scale+1);
+        }else{
+            repaint(0, firstRow*8*scale, 16*8*scale+1,
+                    (lastRow-firstRow+1)*8*scale+1);
+        }
     }
     
     /**
@@ -94,7 +150,11 @@ public class PatternTable extends JPanel {
      * @param chrData The CHR data to display.
      */
     public void setCHR(CHRData chrData) {
+        this.chrData.removeEventHandler(chrEvent);
         this.chrData = chrData;
+        chrData.addEventHandler(chrEvent);
+        updateSize();
+        revalidate();
         repaint();
     }
     
@@ -113,9 +173,7 @@ public class PatternTable extends JPanel {
      */
     public void setScale(int scale) {
         this.scale = scale;
-        Dimension size = new Dimension(scale*8*16+16,
-                scale*8*16*chrData.getChrBanks()+16);
-        setPreferredSize(size);
+        updateSize();
         repaint();
     }
     
@@ -152,6 +210,11 @@ public class PatternTable extends JPanel {
         return selectedY;
     }
     
+    private void repaintSelection() {
+        // The extra pixel includes the right and bottom borders.
+        repaint(selectedX*8*scale, selectedY*8*scale, 8*scale+1, 8*scale+1);
+    }
+    
     private void handleMouse() {
         addMouseListener(new MouseListener() {
             @Override
@@ -159,12 +222,14 @@ public class PatternTable extends JPanel {
                 int tileX = e.getX()/(scale*8);
                 int tileY = e.getY()/(scale*8);
                 if(tileX != selectedX || tileY != selectedY){
+                    // Only repaint the old and the new selection.
+                    repaintSelection();
                     selectedX = tileX;
                     selectedY = tileY;
                     if(event != null){
                         event.tileSelected(selectedX, selectedY);
                     }
-                    repaint();
+                    repaintSelection();
                 }
             }
 
@@ -190,48 +255,78 @@ public class PatternTable extends JPanel {
         });
     }
     
+    private BufferedImage getImage(PatternRaster raster) {
+        // The palette arrays may be modified without calling setPalette, so
+        // its colors are compared.
+        int[] colors = new int[4];
+        for(int i=0;i<4;i++){
+            colors[i] = palette[i][0]<<16|palette[i][1]<<8|palette[i][2];
+        }
+        if(raster != patternRaster || !Arrays.equals(colors, imageColors)){
+            patternRaster = raster;
+            image = raster.createImage(palette);
+            imageColors = colors;
+        }
+        return image;
+    }
+    
     /**
      * Draw this widget
      * @param g The awt Graphics.
      */
     @Override
     protected void paintComponent(Graphics g) {
+        paintStats.begin();
+        int tilesDrawn = 0;
         super.paintComponent(g);
-        int chrBanks = displayedChrBanks == 0 ?
-                chrData.getChrBanks() : displayedChrBanks;
-        chrBanks = Math.min(chrBanks, chrData.getChrBanks());
-        int start = Math.min(startChrBank, chrData.getChrBanks()-1)*256;
-        for(int y=0;y<16*chrBanks;y++){
-            for(int x=0;x<16;x++){
-                BufferedImage image = chrData.generateTileImage(start+y*16+x,
-                        palette, scale);
-                g.drawImage(image, x*8*scale, y*8*scale, this);
-            }
-            if(y%16 == 0){
-                g.setColor(Color.WHITE);
-            }
-            if(grid){
-                g.drawLine(0, y*8*scale, 16*8*scale, y*8*scale);
-            }
-            if(y%16 == 0){
-                g.setColor(Color.GRAY);
-            }
+        int chrBanks = getDisplayedChrBanks();
+        // Only draw the tiles that are in the clip, the pattern table can be
+        // much bigger than the visible area.
+        int tileSize = 8*scale;
+        int firstRow = 0, lastRow = 16*chrBanks-1, firstColumn = 0;
+        int lastColumn = 15;
+        Rectangle clip = g.getClipBounds();
+        if(clip != null){
+            firstRow = Math.max(firstRow, clip.y/tileSize);
+            lastRow = Math.min(lastRow, (clip.y+clip.height-1)/tileSize);
+            firstColumn = Math.max(firstColumn, clip.x/tileSize);
+            lastColumn = Math.min(lastColumn,
+                    (clip.x+clip.width-1)/tileSize);
         }
-        if(grid){
-            for(int x=0;x<16;x++){
-                g.drawLine(x*8*scale, 0, x*8*scale,
-                        16*chrBanks*8*scale);
+        if(firstRow <= lastRow && firstColumn <= lastColumn){
+            tilesDrawn = (lastRow-firstRow+1)*(lastColumn-firstColumn+1);
+            int startBank = Math.min(startChrBank, chrData.getChrBanks()-1);
+            PatternRaster raster = chrData.getPatternRaster();
+            raster.update(startBank+firstRow/16, startBank+lastRow/16);
+            // The image is scaled with the nearest neighbor interpolation.
+            int startY = startBank*16*8;
+            g.drawImage(getImage(raster), firstColumn*tileSize,
+                    firstRow*tileSize, (lastColumn+1)*tileSize,
+                    (lastRow+1)*tileSize, firstColumn*8, startY+firstRow*8,
+                    (lastColumn+1)*8, startY+(lastRow+1)*8, this);
+            if(grid){
+                gridLayer.paint(g, tileSize, firstColumn, firstRow,
+                        lastColumn, lastRow);
+                // The CHR banks are separated by white lines.
+                g.setColor(Color.WHITE);
+                for(int y=(firstRow+15)/16*16;y<=lastRow;y+=16){
+                    g.drawLine(firstColumn*tileSize, y*tileSize,
+                            (lastColumn+1)*tileSize, y*tileSize);
+                }
             }
         }
         // Show the selection
         g.setColor(Color.WHITE);
-        g.drawLine(selectedX*8*scale, selectedY*8*scale, (selectedX+1)*8*scale,
-                selectedY*8*scale);
-        g.drawLine(selectedX*8*scale, (selectedY+1)*8*scale,
-                (selectedX+1)*8*scale, (selectedY+1)*8*scale);
-        g.drawLine(selectedX*8*scale, selectedY*8*scale, selectedX*8*scale,
-                (selectedY+1)*8*scale);
-        g.drawLine((selectedX+1)*8*scale, selectedY*8*scale,
-                (selectedX+1)*8*scale, (selectedY+1)*8*scale);
+        g.drawRect(selectedX*tileSize, selectedY*tileSize, tileSize,
+                tileSize);
+        paintStats.end(tilesDrawn, g);
+    }
+    
+    /**
+     * Get the time spent painting the pattern table.
+     * @return The paint statistics.
+     */
+    public PaintStats getPaintStats() {
+        return paintStats;
     }
 }
@@ -17,28 +17,56 @@
  */
 package io.github.mibi88.mibinestools.chr_editor;
 
-import java.awt.Color;
+import io.github.mibi88.mibinestools.AcceleratedBuffer;
+import io.github.mibi88.mibinestools.PaintStats;
+import io.github.mibi88.mibinestools.RenderEvent;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.util.Arrays;
 import javax.swing.JPanel;
 
 /**
- *
+ * A canvas to edit tiles.
+ * The pixels are kept in an image of color indices, drawn with a color model
+ * made from the palette, and the overlay is kept in a separate translucent
+ * image. Both images are only updated where the pixels change, so the canvas
+ * can be large and zoomed in without slowing down the tools.
  * @author mibi88
  */
 public class TileCanvas extends JPanel {
     private final int MAX_SCALE = 128;
+    private static final int OVERLAY_COLOR = 0x7FFFFFFF;
     private int scale;
     private byte[] data;
-    private boolean[] overlay;
     private int[][] palette;
     private int w, h;
     private byte currentColor;
     private CanvasEvent event;
+    // The color indices of the pixels, with 2 bits per pixel.
+    private WritableRaster raster;
+    private BufferedImage image;
+    // The colors of the color model of image.
+    private int[] imageColors;
+    private BufferedImage overlay;
+    private int[] overlayPixels;
+    private Rectangle clip;
+    // The pixels that need to be drawn again and the pixels covered by the
+    // overlay, empty when their width is 0.
+    private Rectangle damage;
+    private Rectangle overlayBounds;
+    private boolean deferRepaint;
+    private AcceleratedBuffer buffer;
+    private PaintStats paintStats;
+    private int pixelsDrawn;
 
     /**
      * Create a new tile canvas.
@@ -55,6 +83,17 @@ public class TileCanvas extends JPanel {
         this.palette = palette;
         this.currentColor = currentColor;
         data = null;
+        damage = new Rectangle();
+        overlayBounds = new Rectangle();
+        clip = new Rectangle();
+        imageColors = new int[4];
+        paintStats = new PaintStats("Tile canvas");
+        buffer = new AcceleratedBuffer(this, new RenderEvent() {
+            @Override
+            public void render(Graphics g) {
+                drawContent(g);
+            }
+        });
         updateSize(w, h);
         setPixelOnClick();
         repaint();
@@ -129,7 +168,51 @@ public class TileCanvas extends JPanel {
     
     private void onPixel(int x, int y, boolean end) {
         if(event != null){
-            event.canvasUpdate(x, y, end);
+            // Repaint all the pixels changed by the tool at once.
+            deferRepaint = true;
+            try {
+                event.canvasUpdate(x, y, end);
+            } finally {
+                deferRepaint = false;
+            }
+            repaintDamage();
+        }
+    }
+    
+    private static void addCell(Rectangle rect, int x, int y) {
+        if(rect.width == 0){
+            rect.setBounds(x, y, 1, 1);
+        }else{
+            rect.add(x, y);
+            rect.add(x+1, y+1);
+        }
+    }
+    
+    private void addDamage(Rectangle rect) {
+        if(rect.width != 0){
+            if(damage.width == 0){
+                damage.setBounds(rect);
+            }else{
+                damage.add(rect);
+            }
+        }
+        if(!deferRepaint){
+            repaintDamage();
+        }
+    }
+    
+    private void addDamage(int x, int y) {
+        addCell(damage, x, y);
+        if(!deferRepaint){
+            repaintDamage();
+        }
+    }
+    
+    private void repaintDamage() {
+        if(damage.width != 0){
+            repaint(damage.x*scale, damage.y*scale, damage.width*scale,
+                    damage.height*scale);
+            damage.setBounds(0, 0, 0, 0);
         }
     }
     
@@ -141,8 +224,12 @@ public class TileCanvas extends JPanel {
      */
     public void setPixel(int x, int y, byte value) {
         if(x >= 0 && x < w && y >= 0 && y < h){
-            data[y*w+x] = (byte)(value&0b00000011);
-            repaint();
+            value &= 0b00000011;
+            if(data[y*w+x] != value){
+                data[y*w+x] = value;
+                raster.setSample(x, y, 0, value);
+                addDamage(x, y);
+            }
         }
     }
     
@@ -152,7 +239,7 @@ public class TileCanvas extends JPanel {
     public void zoomIn() {
         if(scale < MAX_SCALE){
             scale++;
-            setPreferredSize(new Dimension(h*scale, w*scale));
+            setPreferredSize(new Dimension(w*scale, h*scale));
             repaint();
         }
     }
@@ -163,7 +250,7 @@ public class TileCanvas extends JPanel {
     public void zoomOut() {
         if(scale > 1){
             scale--;
-            setPreferredSize(new Dimension(h*scale, w*scale));
+            setPreferredSize(new Dimension(w*scale, h*scale));
             repaint();
         }
     }
@@ -176,10 +263,16 @@ public class TileCanvas extends JPanel {
     public void updateSize(int w, int h) {
         // TODO: Keep data when resizing?
         data = new byte[w*h];
-        overlay = new boolean[w*h];
         this.w = w;
         this.h = h;
-        setPreferredSize(new Dimension(h*scale, w*scale));
+        raster = Raster.createWritableRaster(new MultiPixelPackedSampleModel(
+                DataBufferByte.TYPE_BYTE, w, h, 2), null);
+        image = null;
+        overlay = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        overlayPixels = TileRasterizer.getPixels(overlay);
+        overlayBounds.setBounds(0, 0, 0, 0);
+        setPreferredSize(new Dimension(w*scale, h*scale));
+        repaint();
     }
     
     /**
@@ -198,8 +291,16 @@ public class TileCanvas extends JPanel {
      */
     public void loadData(byte[] data) throws Exception {
         if(this.data.length == data.length){
+            // Only repaint the pixels that changed.
+            Rectangle changed = new Rectangle();
+            for(int i=0;i<data.length;i++){
+                if(this.data[i] != data[i]){
+                    raster.setSample(i%w, i/w, 0, data[i]&0b11);
+                    addCell(changed, i%w, i/w);
+                }
+            }
             this.data = data;
-            repaint();
+            addDamage(changed);
         }else{
             throw new Exception("Bad data size!");
         }
@@ -227,7 +328,14 @@ public class TileCanvas extends JPanel {
      * This methods turns all the pixels of the overlay off.
      */
     public void clearOverlay() {
-        Arrays.fill(overlay, false);
+        // Only the pixels in the bounds of the overlay can be on.
+        for(int y=overlayBounds.y;y<overlayBounds.y+overlayBounds.height;
+                y++){
+            Arrays.fill(overlayPixels, y*w+overlayBounds.x,
+                    y*w+overlayBounds.x+overlayBounds.width, 0);
+        }
+        addDamage(overlayBounds);
+        overlayBounds.setBounds(0, 0, 0, 0);
     }
     
     /**
@@ -237,9 +345,59 @@ public class TileCanvas extends JPanel {
      * @param value If the pixel should be on or off.
      */
     public void setOverlayPixel(int x, int y, boolean value) {
-        if(x >= 0 && x < w && y >= 0 && y < h){
-            overlay[y*w+x] = value;
+        int color = value ? OVERLAY_COLOR : 0;
+        if(x >= 0 && x < w && y >= 0 && y < h
+                && overlayPixels[y*w+x] != color){
+            overlayPixels[y*w+x] = color;
+            addCell(overlayBounds, x, y);
+            addDamage(x, y);
+        }
+    }
+    
+    private BufferedImage getImage() {
+        // The palette arrays can be modified by the palette editor, so the
+        // colors are compared each time.
+        boolean changed = image == null;
+        for(int i=0;i<4;i++){
+            int color = 0xFF000000|palette[i][0]<<16|palette[i][1]<<8
+                    |palette[i][2];
+            if(imageColors[i] != color){
+                imageColors[i] = color;
+                changed = true;
+            }
+        }
+        if(changed){
+            // The pixels are kept, only the color model changes.
+            image = new BufferedImage(PatternRaster.createColorModel(palette),
+                    raster, false, null);
         }
+        return image;
+    }
+    
+    /**
+     * Draw the canvas in an accelerated buffer or directly.
+     * @param accelerated True if the canvas should be drawn in a
+     * VolatileImage.
+     */
+    public void setAccelerated(boolean accelerated) {
+        buffer.setEnabled(accelerated);
+        repaint();
+    }
+    
+    /**
+     * Mark an area as modified before repainting it.
+     * @param tm The maximum time in milliseconds before the update.
+     * @param x The position of the area.
+     * @param y The position of the area.
+     * @param width The width of the area.
+     * @param height The height of the area.
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if(buffer != null){
+            buffer.invalidate(x, y, width, height);
+        }
+        super.repaint(tm, x, y, width, height);
     }
     
     /**
@@ -248,17 +406,40 @@ public class TileCanvas extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        paintStats.begin();
+        pixelsDrawn = 0;
         super.paintComponent(g);
-        for(int y=0;y<h;y++){
-            for(int x=0;x<w;x++){
-                Color color = new Color(palette[data[y*w+x]][0],
-                        palette[data[y*w+x]][1], palette[data[y*w+x]][2]);
-                g.setColor(color);
-                g.fillRect(x*scale, y*scale, scale, scale);
-                if(overlay[y*w+x]){
-                    g.setColor(new Color(255, 255, 255, 127));
-                    g.fillRect(x*scale, y*scale, scale, scale);
-                }
+        buffer.paint(g);
+        paintStats.end(pixelsDrawn, g);
+    }
+    
+    /**
+     * Get the time spent painting the canvas.
+     * @return The paint statistics.
+     */
+    public PaintStats getPaintStats() {
+        return paintStats;
+    }
+    
+    private void drawContent(Graphics g) {
+        // Only draw the pixels that are in the clip.
+        int firstX = 0, firstY = 0, lastX = w-1, lastY = h-1;
+        clip.setBounds(0, 0, w*scale, h*scale);
+        g.getClipBounds(clip);
+        firstX = Math.max(firstX, clip.x/scale);
+        firstY = Math.max(firstY, clip.y/scale);
+        lastX = Math.min(lastX, (clip.x+clip.width-1)/scale);
+        lastY = Math.min(lastY, (clip.y+clip.height-1)/scale);
+        if(firstX <= lastX && firstY <= lastY){
+            pixelsDrawn += (lastX-firstX+1)*(lastY-firstY+1);
+            // The images are scaled with the nearest neighbor interpolation.
+            g.drawImage(getImage(), firstX*scale, firstY*scale,
+                    (lastX+1)*scale, (lastY+1)*scale, firstX, firstY,
+                    lastX+1, lastY+1, this);
+            if(overlayBounds.width != 0){
+                g.drawImage(overlay, firstX*scale, firstY*scale,
+                        (lastX+1)*scale, (lastY+1)*scale, firstX, firstY,
+                        lastX+1, lastY+1, this);
             }
         }
     }
@@ -19,6 +19,7 @@ package io.github.mibi88.mibinestools.chr_editor;
 
 import io.github.mibi88.mibinestools.palette_editor.ColorPicker;
 import io.github.mibi88.mibinestools.DrawEvent;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.Line;
 import io.github.mibi88.mibinestools.Rectangle;
 import java.awt.GridBagConstraints;
@@ -191,6 +192,22 @@ public class TileEditor extends JPanel {
         }
     }
     
+    /**
+     * Enable or disable the accelerated rendering of the canvas.
+     * @param accelerated True if the canvas should be accelerated.
+     */
+    public void setAccelerated(boolean accelerated) {
+        tileCanvas.setAccelerated(accelerated);
+    }
+    
+    /**
+     * Get the time spent painting the canvas.
+     * @return The paint statistics of the canvas.
+     */
+    public PaintStats getPaintStats() {
+        return tileCanvas.getPaintStats();
+    }
+    
     /**
      * Set the palette to use to display the tile.
      * @param palette The palette to use to display the tile.
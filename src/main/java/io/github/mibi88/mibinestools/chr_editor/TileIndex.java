@@ -0,0 +1,240 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.util.Arrays;
+
+/**
+ * Finds the tiles of a pattern table that have the same content, or the same
+ * content once flipped.
+ * A tile is identified by its 16 raw bytes, stored as two longs (one per bit
+ * plane). The tiles are stored in two hash maps using open addressing: one
+ * with their content, and one with the smallest of their content and the
+ * content of their flipped versions.
+ * @author mibi88
+ */
+class TileIndex {
+    private TileMap tiles;
+    private TileMap flippedTiles;
+    private long[] key;
+    
+    /**
+     * Create an empty tile index.
+     * @param tileCount The number of tiles in the pattern table.
+     */
+    public TileIndex(int tileCount) {
+        tiles = new TileMap(tileCount);
+        flippedTiles = new TileMap(tileCount);
+        key = new long[2];
+    }
+    
+    /**
+     * Read a bit plane of a tile.
+     * @param data The raw CHR data.
+     * @param offset The position of the bit plane in data.
+     * @return The 8 bytes of the bit plane, the first row in the highest byte.
+     */
+    public static long readPlane(byte[] data, int offset) {
+        long plane = 0;
+        for(int i=0;i<8;i++){
+            plane = plane<<8|(data[offset+i]&0xFF);
+        }
+        return plane;
+    }
+    
+    /**
+     * Add or update a tile.
+     * @param tile The index of the tile.
+     * @param low The low bit plane of the tile.
+     * @param high The high bit plane of the tile.
+     */
+    public void setTile(int tile, long low, long high) {
+        tiles.remove(tile);
+        tiles.add(tile, low, high);
+        flippedTiles.remove(tile);
+        canonicalKey(low, high, key);
+        flippedTiles.add(tile, key[0], key[1]);
+    }
+    
+    /**
+     * Get the tiles that have a specific content.
+     * @param low The low bit plane.
+     * @param high The high bit plane.
+     * @return The indices of the tiles.
+     */
+    public int[] find(long low, long high) {
+        return tiles.get(low, high);
+    }
+    
+    /**
+     * Get the tiles that have a specific content, once flipped horizontally,
+     * vertically or both, or not flipped.
+     * @param low The low bit plane.
+     * @param high The high bit plane.
+     * @return The indices of the tiles.
+     */
+    public int[] findFlipped(long low, long high) {
+        canonicalKey(low, high, key);
+        return flippedTiles.get(key[0], key[1]);
+    }
+    
+    private static long flipHorizontal(long plane) {
+        // Reverse the bits in each byte.
+        return Long.reverseBytes(Long.reverse(plane));
+    }
+    
+    private static long flipVertical(long plane) {
+        return Long.reverseBytes(plane);
+    }
+    
+    private static void canonicalKey(long low, long high, long[] out) {
+        out[0] = low;
+        out[1] = high;
+        keepSmallest(flipHorizontal(low), flipHorizontal(high), out);
+        keepSmallest(flipVertical(low), flipVertical(high), out);
+        keepSmallest(Long.reverse(low), Long.reverse(high), out);
+    }
+    
+    private static void keepSmallest(long low, long high, long[] out) {
+        if(high < out[1] || (high == out[1] && low < out[0])){
+            out[0] = low;
+            out[1] = high;
+        }
+    }
+    
+    /**
+     * Maps tile contents to lists of tiles.
+     * The tiles with the same content are stored in a linked list, and the
+     * map stores the first tile of each list.
+     */
+    private static class TileMap {
+        private long[] keyLow;
+        private long[] keyHigh;
+        private int[] first;
+        private int mask;
+        private int[] next;
+        private int[] previous;
+        private long[] tileLow;
+        private long[] tileHigh;
+        private boolean[] present;
+        
+        public TileMap(int tileCount) {
+            int capacity = 16;
+            while(capacity < tileCount*2){
+                capacity <<= 1;
+            }
+            keyLow = new long[capacity];
+            keyHigh = new long[capacity];
+            first = new int[capacity];
+            Arrays.fill(first, -1);
+            mask = capacity-1;
+            next = new int[tileCount];
+            previous = new int[tileCount];
+            tileLow = new long[tileCount];
+            tileHigh = new long[tileCount];
+            present = new boolean[tileCount];
+        }
+        
+        private int hash(long low, long high) {
+            long h = low*0x9E3779B97F4A7C15L^high*0xC2B2AE3D27D4EB4FL;
+            h ^= h>>>29;
+            return (int)h&mask;
+        }
+        
+        private int findSlot(long low, long high) {
+            int slot = hash(low, high);
+            while(first[slot] >= 0){
+                if(keyLow[slot] == low && keyHigh[slot] == high){
+                    return slot;
+                }
+                slot = (slot+1)&mask;
+            }
+            // Return the empty slot where the key could be added.
+            return slot;
+        }
+        
+        public void add(int tile, long low, long high) {
+            int slot = findSlot(low, high);
+            if(first[slot] < 0){
+                keyLow[slot] = low;
+                keyHigh[slot] = high;
+                next[tile] = -1;
+            }else{
+                next[tile] = first[slot];
+                previous[first[slot]] = tile;
+            }
+            previous[tile] = -1;
+            first[slot] = tile;
+            tileLow[tile] = low;
+            tileHigh[tile] = high;
+            present[tile] = true;
+        }
+        
+        public void remove(int tile) {
+            if(!present[tile]){
+                return;
+            }
+            present[tile] = false;
+            if(next[tile] >= 0){
+                previous[next[tile]] = previous[tile];
+            }
+            if(previous[tile] >= 0){
+                next[previous[tile]] = next[tile];
+                return;
+            }
+            int slot = findSlot(tileLow[tile], tileHigh[tile]);
+            first[slot] = next[tile];
+            if(first[slot] < 0){
+                deleteSlot(slot);
+            }
+        }
+        
+        private void deleteSlot(int slot) {
+            // Move back the following keys that would not be found anymore
+            // with an empty slot before them.
+            int empty = slot;
+            int current = (slot+1)&mask;
+            while(first[current] >= 0){
+                int wanted = hash(keyLow[current], keyHigh[current]);
+                if(((current-wanted)&mask) >= ((current-empty)&mask)){
+                    keyLow[empty] = keyLow[current];
+                    keyHigh[empty] = keyHigh[current];
+                    first[empty] = first[current];
+                    first[current] = -1;
+                    empty = current;
+                }
+                current = (current+1)&mask;
+            }
+        }
+        
+        public int[] get(long low, long high) {
+            int slot = findSlot(low, high);
+            int count = 0;
+            for(int i=first[slot];i>=0;i=next[i]){
+                count++;
+            }
+            int[] out = new int[count];
+            int n = 0;
+            for(int i=first[slot];i>=0;i=next[i]){
+                out[n++] = i;
+            }
+            Arrays.sort(out);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws tiles directly in the pixels of images of type TYPE_INT_RGB or
+ * TYPE_INT_ARGB.
+ * The pixels are written as packed ints, and the scaled pixels are filled
+ * with Arrays.fill and System.arraycopy, without going through the color
+ * model of the image.
+ * Multiple tiles can be drawn in the same image, at any position.
+ * @author mibi88
+ */
+public final class TileRasterizer {
+    
+    private TileRasterizer() {
+        return;
+    }
+    
+    /**
+     * Convert a palette to packed colors.
+     * @param palette The palette, the red, green and blue components of each
+     * color.
+     * @return The 4 colors in the 0xAARRGGBB format, opaque.
+     */
+    public static int[] getColors(int[][] palette) {
+        int[] colors = new int[4];
+        for(int i=0;i<4;i++){
+            colors[i] = 0xFF000000|palette[i][0]<<16|palette[i][1]<<8
+                    |palette[i][2];
+        }
+        return colors;
+    }
+    
+    /**
+     * Get the pixels of an image.
+     * The image is then no longer accelerated by Java2D, so it is better to
+     * keep using the same image.
+     * @param image An image of type TYPE_INT_RGB or TYPE_INT_ARGB.
+     * @return The pixels, line by line.
+     */
+    public static int[] getPixels(BufferedImage image) {
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+    
+    /**
+     * Draw a tile from raw CHR data.
+     * @param raw The raw CHR data.
+     * @param rawOffset The position of the tile in raw.
+     * @param colors The 4 packed colors to use.
+     * @param dst The pixels of the destination image.
+     * @param dstOffset The position of the top left pixel of the tile in
+     * dst.
+     * @param dstStride The width of the destination image.
+     * @param scale The scale of the tile.
+     */
+    public static void drawTile(byte[] raw, int rawOffset, int[] colors,
+            int[] dst, int dstOffset, int dstStride, int scale) {
+        for(int y=0;y<8;y++){
+            long row = CHRCodec.decodeRow(raw[rawOffset+y],
+                    raw[rawOffset+8+y]);
+            int pos = dstOffset;
+            for(int x=0;x<8;x++){
+                int color = colors[(int)(row>>>x*8)&0b11];
+                if(scale == 1){
+                    dst[pos] = color;
+                }else{
+                    Arrays.fill(dst, pos, pos+scale, color);
+                }
+                pos += scale;
+            }
+            copyLine(dst, dstOffset, dstStride, 8*scale, scale);
+            dstOffset += dstStride*scale;
+        }
+    }
+    
+    /**
+     * Draw a tile from raw CHR data in an image.
+     * @param raw The raw CHR data.
+     * @param rawOffset The position of the tile in raw.
+     * @param colors The 4 packed colors to use.
+     * @param image An image of type TYPE_INT_RGB or TYPE_INT_ARGB.
+     * @param x The position of the tile in the image.
+     * @param y The position of the tile in the image.
+     * @param scale The scale of the tile.
+     */
+    public static void drawTile(byte[] raw, int rawOffset, int[] colors,
+            BufferedImage image, int x, int y, int scale) {
+        drawTile(raw, rawOffset, colors, getPixels(image),
+                y*image.getWidth()+x, image.getWidth(), scale);
+    }
+    
+    /**
+     * Draw pixels that contain color indices.
+     * @param pixels The pixels, one byte per pixel.
+     * @param offset The position of the top left pixel in pixels.
+     * @param stride The length of a line of pixels.
+     * @param width The number of pixels to draw on the X axis.
+     * @param height The number of pixels to draw on the Y axis.
+     * @param colors The packed colors to use.
+     * @param dst The pixels of the destination image.
+     * @param dstOffset The position of the top left pixel in dst.
+     * @param dstStride The width of the destination image.
+     * @param scale The scale of the pixels.
+     */
+    public static void drawPixels(byte[] pixels, int offset, int stride,
+            int width, int height, int[] colors, int[] dst, int dstOffset,
+            int dstStride, int scale) {
+        for(int y=0;y<height;y++){
+            int pos = dstOffset;
+            for(int x=0;x<width;x++){
+                int color = colors[pixels[offset+x]&0xFF];
+                if(scale == 1){
+                    dst[pos] = color;
+                }else{
+                    Arrays.fill(dst, pos, pos+scale, color);
+                }
+                pos += scale;
+            }
+            copyLine(dst, dstOffset, dstStride, width*scale, scale);
+            offset += stride;
+            dstOffset += dstStride*scale;
+        }
+    }
+    
+    private static void copyLine(int[] dst, int offset, int stride,
+            int length, int count) {
+        // Copy the first line of the scaled pixels to the other ones.
+        for(int i=1;i<count;i++){
+            System.arraycopy(dst, offset, dst, offset+i*stride, length);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+/**
+ * An operation that can be applied to many tiles at once with
+ * CHRData.transformTiles.
+ * It may get called from multiple threads at the same time.
+ * @author mibi88
+ */
+public interface TileTransform {
+    
+    /**
+     * Transform a tile.
+     * @param tile The tile to transform (8*8 pixels, one byte per pixel).
+     * @param out The array to store the transformed tile in, it is never the
+     * same array as tile.
+     */
+    public void transform(byte[] tile, byte[] out);
+}
@@ -0,0 +1,136 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+/**
+ * The tile transforms available in the CHR editor.
+ * @author mibi88
+ */
+public final class TileTransforms {
+    
+    private TileTransforms() {
+        return;
+    }
+    
+    /**
+     * Mirror the tiles horizontally.
+     * @return The transform.
+     */
+    public static TileTransform flipHorizontal() {
+        return new TileTransform() {
+            @Override
+            public void transform(byte[] tile, byte[] out) {
+                for(int y=0;y<8;y++){
+                    for(int x=0;x<8;x++){
+                        out[y*8+x] = tile[y*8+7-x];
+                    }
+                }
+            }
+        };
+    }
+    
+    /**
+     * Mirror the tiles vertically.
+     * @return The transform.
+     */
+    public static TileTransform flipVertical() {
+        return new TileTransform() {
+            @Override
+            public void transform(byte[] tile, byte[] out) {
+                for(int y=0;y<8;y++){
+                    System.arraycopy(tile, (7-y)*8, out, y*8, 8);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Rotate the tiles by 90 degrees clockwise.
+     * @return The transform.
+     */
+    public static TileTransform rotate() {
+        return new TileTransform() {
+            @Override
+            public void transform(byte[] tile, byte[] out) {
+                for(int y=0;y<8;y++){
+                    for(int x=0;x<8;x++){
+                        out[y*8+x] = tile[(7-x)*8+y];
+                    }
+                }
+            }
+        };
+    }
+    
+    /**
+     * Shift the content of the tiles, the pixels that go out of a tile come
+     * back on the other side.
+     * @param dx The number of pixels to shift the tiles by on the X axis.
+     * @param dy The number of pixels to shift the tiles by on the Y axis.
+     * @return The transform.
+     */
+    public static TileTransform shift(int dx, int dy) {
+        final int sx = (dx%8+8)%8;
+        final int sy = (dy%8+8)%8;
+        return new TileTransform() {
+            @Override
+            public void transform(byte[] tile, byte[] out) {
+                for(int y=0;y<8;y++){
+                    for(int x=0;x<8;x++){
+                        out[(y+sy)%8*8+(x+sx)%8] = tile[y*8+x];
+                    }
+                }
+            }
+        };
+    }
+    
+    /**
+     * Exchange two colors in the tiles.
+     * @param color1 The first color (0-3).
+     * @param color2 The second color (0-3).
+     * @return The transform.
+     */
+    public static TileTransform swapColors(int color1, int color2) {
+        byte[] colors = {0, 1, 2, 3};
+        colors[color1&0b11] = (byte)(color2&0b11);
+        colors[color2&0b11] = (byte)(color1&0b11);
+        return remapColors(colors);
+    }
+    
+    /**
+     * Replace a color by another one in the tiles.
+     * @param color The color to replace (0-3).
+     * @param newColor The color to replace it with (0-3).
+     * @return The transform.
+     */
+    public static TileTransform replaceColor(int color, int newColor) {
+        byte[] colors = {0, 1, 2, 3};
+        colors[color&0b11] = (byte)(newColor&0b11);
+        return remapColors(colors);
+    }
+    
+    private static TileTransform remapColors(final byte[] colors) {
+        return new TileTransform() {
+            @Override
+            public void transform(byte[] tile, byte[] out) {
+                for(int i=0;i<tile.length;i++){
+                    out[i] = colors[tile[i]&0b11];
+                }
+            }
+        };
+    }
+}
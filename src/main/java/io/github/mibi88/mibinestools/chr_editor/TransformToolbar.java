@@ -0,0 +1,144 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.chr_editor;
+
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JToolBar;
+import javax.swing.SpinnerNumberModel;
+
+/**
+ * A toolbar to apply a transform to many tiles at once.
+ * @author mibi88
+ */
+public class TransformToolbar extends JToolBar {
+    private final String[] TRANSFORMS = {
+        "Flip horizontally",
+        "Flip vertically",
+        "Rotate",
+        "Shift left",
+        "Shift right",
+        "Shift up",
+        "Shift down",
+        "Swap colors 1 and 3",
+        "Replace color..."
+    };
+    private final String[] SCOPES = {
+        "Selected tile",
+        "Selected bank",
+        "All banks"
+    };
+    private JComboBox<String> transformChooser;
+    private JComboBox<String> scopeChooser;
+    private JButton apply;
+    private CHREditor editor;
+    
+    /**
+     * Create the transform toolbar.
+     * @param editor The CHR editor to use with the toolbar.
+     */
+    public TransformToolbar(CHREditor editor) {
+        super("Transform");
+        setFloatable(false);
+        setRollover(true);
+        this.editor = editor;
+        transformChooser = new JComboBox<String>(TRANSFORMS);
+        scopeChooser = new JComboBox<String>(SCOPES);
+        apply = new JButton("Apply");
+        add(transformChooser);
+        add(scopeChooser);
+        add(apply);
+        addActions();
+    }
+    
+    private void addActions() {
+        apply.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                TileTransform transform = getTransform();
+                if(transform == null){
+                    return;
+                }
+                int tile = editor.getSelectedTile();
+                switch(scopeChooser.getSelectedIndex()){
+                    case 0:
+                        editor.transformTiles(tile, 1, transform);
+                        break;
+                    case 1:
+                        editor.transformTiles(tile/CHRData.BANK_TILES
+                                *CHRData.BANK_TILES, CHRData.BANK_TILES,
+                                transform);
+                        break;
+                    case 2:
+                        editor.transformTiles(0, editor.getCHRData()
+                                .getChrBanks()*CHRData.BANK_TILES,
+                                transform);
+                        break;
+                }
+            }
+        });
+    }
+    
+    private TileTransform getTransform() {
+        switch(transformChooser.getSelectedIndex()){
+            case 0:
+                return TileTransforms.flipHorizontal();
+            case 1:
+                return TileTransforms.flipVertical();
+            case 2:
+                return TileTransforms.rotate();
+            case 3:
+                return TileTransforms.shift(-1, 0);
+            case 4:
+                return TileTransforms.shift(1, 0);
+            case 5:
+                return TileTransforms.shift(0, -1);
+            case 6:
+                return TileTransforms.shift(0, 1);
+            case 7:
+                return TileTransforms.swapColors(1, 3);
+            case 8:
+                return askReplaceColor();
+        }
+        return null;
+    }
+    
+    private TileTransform askReplaceColor() {
+        JSpinner color = new JSpinner(new SpinnerNumberModel(0, 0, 3, 1));
+        JSpinner newColor = new JSpinner(new SpinnerNumberModel(0, 0, 3, 1));
+        JPanel panel = new JPanel(new GridLayout(2, 2));
+        panel.add(new JLabel("Color:"));
+        panel.add(color);
+        panel.add(new JLabel("Replace with:"));
+        panel.add(newColor);
+        int selected = JOptionPane.showConfirmDialog(this, panel,
+                "Replace color", JOptionPane.OK_CANCEL_OPTION);
+        if(selected != JOptionPane.OK_OPTION){
+            return null;
+        }
+        return TileTransforms.replaceColor((int)color.getValue(),
+                (int)newColor.getValue());
+    }
+}
@@ -19,7 +19,9 @@
 package io.github.mibi88.mibinestools.code_editor;
 
 import io.github.mibi88.mibinestools.Editor;
+import io.github.mibi88.mibinestools.PaintStats;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.JTextPane;
@@ -51,6 +53,8 @@ public class CodeArea extends JTextPane {
     private UndoManager undoManager;
     private DocumentEditFilter documentFilter;
     private CodeAreaEvent event;
+    private PaintStats paintStats;
+    private PaintStats highlightStats;
 
     /**
      * Create a new CodeArea.
@@ -61,6 +65,8 @@ public class CodeArea extends JTextPane {
         this.fontSize = fontSize;
         setFont(new Font(Font.MONOSPACED, Font.PLAIN, fontSize));
         undoManager = new UndoManager();
+        paintStats = new PaintStats("Code area");
+        highlightStats = new PaintStats("Highlighting");
         styleContext = new StyleContext();
         opcode = styleContext.addStyle("opcode", null);
         StyleConstants.setBold(opcode, true);
@@ -123,20 +129,24 @@ public class CodeArea extends JTextPane {
      * Highlight the text in the CodeArea.
      */
     public void highlight() {
+        highlightStats.begin();
         Style defaultStyle = StyleContext.getDefaultStyleContext().
                 getStyle(StyleContext.DEFAULT_STYLE);
         getStyledDocument().setCharacterAttributes(0,
                 getStyledDocument().getLength(), defaultStyle,
                 true);
         String text = getText();
-        highlightPattern(text, "^\\s*[a-z]{3}[$|\\s|;]", opcode);
-        highlightPattern(text, "\\..*$", pseudoFunctions);
-        highlightPattern(text, "^.*:", label);
-        highlightPattern(text, ";.*$", comment);
-        highlightPattern(text, "#?[$|%]?\\d*[\\s|$]", number);
+        int ranges = 0;
+        ranges += highlightPattern(text, "^\\s*[a-z]{3}[$|\\s|;]", opcode);
+        ranges += highlightPattern(text, "\\..*$", pseudoFunctions);
+        ranges += highlightPattern(text, "^.*:", label);
+        ranges += highlightPattern(text, ";.*$", comment);
+        ranges += highlightPattern(text, "#?[$|%]?\\d*[\\s|$]", number);
+        highlightStats.end(ranges, 0, 0);
     }
     
-    private void highlightPattern(String text, String regex, Style style) {
+    private int highlightPattern(String text, String regex, Style style) {
+        int ranges = 0;
         int start = 0;
         Pattern pattern = Pattern.compile(regex,
                 Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
@@ -145,7 +155,28 @@ public class CodeArea extends JTextPane {
             getStyledDocument().setCharacterAttributes(m.start(),
                     m.end()-m.start(), style, true);
             start = m.end();
+            ranges++;
         }
+        return ranges;
+    }
+    
+    /**
+     * Draw the CodeArea.
+     * @param g The awt Graphics.
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        paintStats.begin();
+        super.paintComponent(g);
+        paintStats.end(0, g);
+    }
+    
+    /**
+     * Get the time spent painting the CodeArea and highlighting its text.
+     * @return The paint statistics and the highlighting statistics.
+     */
+    public PaintStats[] getPaintStats() {
+        return new PaintStats[]{paintStats, highlightStats};
     }
     
     /**
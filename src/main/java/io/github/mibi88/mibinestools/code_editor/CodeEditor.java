@@ -19,6 +19,7 @@
 package io.github.mibi88.mibinestools.code_editor;
 
 import io.github.mibi88.mibinestools.Editor;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.Window;
 import io.github.mibi88.mibinestools.nametable_editor.NametableEditor;
 import java.awt.GridLayout;
@@ -146,6 +147,15 @@ public class CodeEditor extends Editor {
         codeArea.redo();
     }
     
+    /**
+     * Get the time spent painting the code and highlighting it.
+     * @return The paint statistics.
+     */
+    @Override
+    public PaintStats[] getPaintStats() {
+        return codeArea.getPaintStats();
+    }
+    
     /**
      * Get the name of the editor
      * @return The name of the editor.
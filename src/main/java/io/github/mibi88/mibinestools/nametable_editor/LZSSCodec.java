@@ -0,0 +1,257 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compresses the nametables with LZSS.
+ * The data is made of groups of a flag byte followed by 8 items, the lowest
+ * bit of the flags giving the type of the first item. An item is either a
+ * literal byte (bit set) or a match of 2 bytes (bit cleared). The high nibble
+ * of the first byte of a match is the length minus 3, and the other 12 bits
+ * are the distance of the bytes to copy, from 1 to 4095. A match with a
+ * distance of 0 ends the data.
+ * @author mibi88
+ */
+public class LZSSCodec implements NametableCodec {
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 18;
+    private static final int MAX_DISTANCE = 4095;
+    private static final int WINDOW_SIZE = 4096;
+    // The encoder keeps the window and the bytes to compress in a ring
+    // buffer twice as big as the window.
+    private static final int BUFFER_SIZE = WINDOW_SIZE*2;
+    private static final int HASH_SIZE = 4096;
+    private static final int MAX_CHAIN = 64;
+    
+    /**
+     * Get the name of the codec.
+     * @return The name of the codec.
+     */
+    @Override
+    public String getName() {
+        return "LZSS";
+    }
+    
+    /**
+     * Get the extension of the LZSS compressed nametables.
+     * @return The extension.
+     */
+    @Override
+    public String getExtension() {
+        return "lzs";
+    }
+    
+    /**
+     * Compress data.
+     * The matches are found with hash chains of the positions of the 3 byte
+     * sequences in the window.
+     * @param in The stream to read the data to compress from.
+     * @param out The stream to write the compressed data to.
+     * @throws IOException Gets thrown on failure.
+     */
+    @Override
+    public void encode(InputStream in, OutputStream out) throws IOException {
+        int mask = BUFFER_SIZE-1;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int[] head = new int[HASH_SIZE];
+        Arrays.fill(head, -1);
+        // A position is never used once it left the window, so its slot can
+        // be reused by the position that is a window further.
+        int[] previous = new int[WINDOW_SIZE];
+        Group group = new Group(out);
+        int position = 0;
+        int end = 0;
+        boolean eof = false;
+        while(true){
+            // Read enough data for the longest match, without overwriting the
+            // window.
+            while(!eof && end-position < MAX_MATCH){
+                int free = BUFFER_SIZE-MAX_DISTANCE-(end-position);
+                int start = end&mask;
+                int length = BUFFER_SIZE-start < free ? BUFFER_SIZE-start
+                        : free;
+                int read = in.read(buffer, start, length);
+                if(read < 0){
+                    eof = true;
+                }else{
+                    end += read;
+                }
+            }
+            if(position >= end){
+                break;
+            }
+            int available = end-position < MAX_MATCH ? end-position
+                    : MAX_MATCH;
+            int bestLength = 0;
+            int bestDistance = 0;
+            if(available >= MIN_MATCH){
+                int candidate = head[hash(buffer, position, mask)];
+                int chain = 0;
+                while(candidate >= 0 && position-candidate <= MAX_DISTANCE
+                        && chain < MAX_CHAIN){
+                    int length = 0;
+                    // A longer match must also match the byte after the best
+                    // match found so far.
+                    if(buffer[(candidate+bestLength)&mask]
+                            == buffer[(position+bestLength)&mask]){
+                        while(length < available
+                                && buffer[(candidate+length)&mask]
+                                == buffer[(position+length)&mask]){
+                            length++;
+                        }
+                    }
+                    if(length > bestLength){
+                        bestLength = length;
+                        bestDistance = position-candidate;
+                        if(length == available){
+                            break;
+                        }
+                    }
+                    candidate = previous[candidate&(WINDOW_SIZE-1)];
+                    chain++;
+                }
+            }
+            int length;
+            if(bestLength >= MIN_MATCH){
+                group.addMatch(bestDistance, bestLength-MIN_MATCH);
+                length = bestLength;
+            }else{
+                group.addLiteral(buffer[position&mask]);
+                length = 1;
+            }
+            for(int i=0;i<length;i++){
+                if(end-position >= MIN_MATCH){
+                    int h = hash(buffer, position, mask);
+                    previous[position&(WINDOW_SIZE-1)] = head[h];
+                    head[h] = position;
+                }
+                position++;
+            }
+        }
+        group.addMatch(0, 0);
+        group.flush();
+    }
+    
+    private static int hash(byte[] buffer, int position, int mask) {
+        int h = (buffer[position&mask]&0xFF)<<16
+                |(buffer[(position+1)&mask]&0xFF)<<8
+                |(buffer[(position+2)&mask]&0xFF);
+        return (h*0x9E3779B1)>>>20&(HASH_SIZE-1);
+    }
+    
+    /**
+     * Decompress data.
+     * @param in The stream to read the compressed data from.
+     * @param out The stream to write the decompressed data to.
+     * @throws IOException Gets thrown on failure, or if the data is invalid.
+     */
+    @Override
+    public void decode(InputStream in, OutputStream out) throws IOException {
+        int mask = WINDOW_SIZE-1;
+        // The window is written each time it is full, and when the data ends.
+        byte[] window = new byte[WINDOW_SIZE];
+        int position = 0;
+        while(true){
+            int flags = read(in);
+            for(int i=0;i<8;i++){
+                if((flags>>i&1) != 0){
+                    window[position&mask] = (byte)read(in);
+                    position++;
+                    if((position&mask) == 0){
+                        out.write(window);
+                    }
+                    continue;
+                }
+                int high = read(in);
+                int distance = (high&0x0F)<<8|read(in);
+                if(distance == 0){
+                    out.write(window, 0, position&mask);
+                    return;
+                }
+                if(distance > position){
+                    throw new IOException("Bad LZSS data!");
+                }
+                int length = (high>>4)+MIN_MATCH;
+                for(int n=0;n<length;n++){
+                    window[position&mask] = window[(position-distance)&mask];
+                    position++;
+                    if((position&mask) == 0){
+                        out.write(window);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static int read(InputStream in) throws IOException {
+        int value = in.read();
+        if(value < 0){
+            throw new IOException("Truncated LZSS data!");
+        }
+        return value;
+    }
+    
+    /**
+     * Stores the items of a group until the group is full.
+     */
+    private static class Group {
+        private OutputStream out;
+        private byte[] data;
+        private int size;
+        private int items;
+        
+        public Group(OutputStream out) {
+            this.out = out;
+            data = new byte[1+8*2];
+            size = 1;
+        }
+        
+        public void addLiteral(byte value) throws IOException {
+            data[0] |= 1<<items;
+            data[size++] = value;
+            next();
+        }
+        
+        public void addMatch(int distance, int length) throws IOException {
+            data[size++] = (byte)(length<<4|distance>>8);
+            data[size++] = (byte)distance;
+            next();
+        }
+        
+        private void next() throws IOException {
+            items++;
+            if(items == 8){
+                flush();
+            }
+        }
+        
+        public void flush() throws IOException {
+            if(items > 0){
+                out.write(data, 0, size);
+                data[0] = 0;
+                size = 1;
+                items = 0;
+            }
+        }
+    }
+}
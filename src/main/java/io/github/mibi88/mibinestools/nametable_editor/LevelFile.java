@@ -0,0 +1,604 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * A level stored in a file made of fixed-size records.
+ * The file starts with a header that gives the size of the map and the
+ * position of the chunk index. The index contains the position of the record
+ * of each screen, or 0 if the screen is empty. A screen record has the same
+ * format as a nametable file, so it can be exported or imported directly.
+ * The file may also contain a table of metatile records and the metatile
+ * map of the level.
+ * The file is mapped in memory and the screens are only read when they get
+ * used. When the level is saved to the same file, only the records that
+ * changed are appended, followed by a new index, and the header is written
+ * last so the file stays valid if the save fails. The records that are not
+ * used anymore are dropped when the file gets rewritten.
+ * A LevelFile is never modified, saving the level returns a new one.
+ * @author mibi88
+ */
+public class LevelFile {
+    /**
+     * The extension of the level files.
+     */
+    public static final String EXTENSION = "lvl";
+    /**
+     * The size of the header of the current version.
+     */
+    public static final int HEADER_SIZE = 48;
+    /**
+     * The size of a screen record.
+     */
+    public static final int SCREEN_RECORD_SIZE = WorldMap.SCREEN_SIZE;
+    
+    // "MLVL"
+    private static final int MAGIC = 0x4D4C564C;
+    private static final int VERSION = 2;
+    
+    private File file;
+    private ByteBuffer mapping;
+    private int version;
+    // Identifies the file, it only changes when the file is rewritten, so
+    // the positions of the records stay valid between the saves.
+    private long id;
+    private int screensX, screensY;
+    private int[] index;
+    private int metatileSize;
+    private int metatileCount;
+    private int metatileOffset;
+    private int layerOffset;
+    private int layerLength;
+    
+    private LevelFile(File file, ByteBuffer mapping) throws Exception {
+        this.file = file.getAbsoluteFile();
+        this.mapping = mapping;
+        int size = mapping.capacity();
+        if(size < 8 || mapping.getInt(0) != MAGIC){
+            throw new Exception("Not a level file!");
+        }
+        version = mapping.getInt(4);
+        if(version < 1 || version > VERSION){
+            throw new Exception("Unsupported level file version!");
+        }
+        int headerSize = getHeaderSize(version);
+        if(size < headerSize){
+            throw new Exception("Not a level file!");
+        }
+        id = mapping.getLong(8);
+        screensX = mapping.getInt(16);
+        screensY = mapping.getInt(20);
+        int indexOffset = mapping.getInt(24);
+        metatileSize = mapping.getInt(28);
+        metatileCount = mapping.getInt(32);
+        metatileOffset = mapping.getInt(36);
+        if(version >= 2){
+            layerOffset = mapping.getInt(40);
+            layerLength = mapping.getInt(44);
+        }
+        if(screensX < 1 || screensY < 1
+                || (long)screensX*screensY*4 > size-headerSize){
+            throw new Exception("Bad map size!");
+        }
+        if(indexOffset < headerSize
+                || indexOffset > size-screensX*screensY*4){
+            throw new Exception("Bad chunk index!");
+        }
+        index = new int[screensX*screensY];
+        for(int i=0;i<index.length;i++){
+            index[i] = mapping.getInt(indexOffset+i*4);
+            if(index[i] != 0 && (index[i] < headerSize
+                    || index[i] > size-SCREEN_RECORD_SIZE)){
+                throw new Exception("Bad screen offset!");
+            }
+        }
+        if(metatileSize < 0 || metatileSize > 4 || metatileCount < 0
+                || (metatileCount > 0 && (metatileOffset < headerSize
+                || (long)metatileCount*getMetatileRecordSize()
+                > size-metatileOffset))){
+            throw new Exception("Bad metatile table!");
+        }
+        if(layerLength < 0 || (layerLength > 0 && (layerOffset < headerSize
+                || layerLength > size-layerOffset))){
+            throw new Exception("Bad metatile map!");
+        }
+    }
+    
+    private static int getHeaderSize(int version) {
+        // The version 1 header doesn't have the metatile map fields.
+        return version >= 2 ? HEADER_SIZE : HEADER_SIZE-8;
+    }
+    
+    /**
+     * Open a level file.
+     * The file is mapped in memory, the screens are only read when they get
+     * used.
+     * @param file The file to open.
+     * @return The level file.
+     * @throws Exception Gets thrown if the file is not a valid level file.
+     */
+    public static LevelFile open(File file) throws Exception {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new Exception("The file is too big!");
+            }
+            return new LevelFile(file, channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Check if a file is a level file and not a raw nametable.
+     * @param file The file to check.
+     * @return True if the file starts with the header of a level file.
+     * @throws IOException Gets thrown if the file can't be read.
+     */
+    public static boolean isLevelFile(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while(magic.hasRemaining()){
+                if(channel.read(magic, magic.position()) < 0){
+                    return false;
+                }
+            }
+            return magic.getInt(0) == MAGIC;
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Get the file this level is stored in.
+     * @return The file.
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Get the number of screens on the X axis.
+     * @return The number of screens.
+     */
+    public int getScreensX() {
+        return screensX;
+    }
+    
+    /**
+     * Get the number of screens on the Y axis.
+     * @return The number of screens.
+     */
+    public int getScreensY() {
+        return screensY;
+    }
+    
+    /**
+     * Get the size of the metatiles.
+     * @return The width and height of a metatile in tiles, 0 if there are no
+     * metatiles.
+     */
+    public int getMetatileSize() {
+        return metatileSize;
+    }
+    
+    /**
+     * Get the number of metatiles.
+     * @return The number of metatile records.
+     */
+    public int getMetatileCount() {
+        return metatileCount;
+    }
+    
+    /**
+     * Get the size of a metatile record.
+     * @return The size of a record in bytes.
+     */
+    public int getMetatileRecordSize() {
+        return getMetatileRecordSize(metatileSize);
+    }
+    
+    /**
+     * Get the size of a metatile record.
+     * A record contains the tiles of the metatile row by row, followed by an
+     * attribute byte containing the palettes of its 2*2 tile blocks, in the
+     * same order as in an attribute table.
+     * @param metatileSize The width and height of a metatile in tiles.
+     * @return The size of a record in bytes.
+     */
+    public static int getMetatileRecordSize(int metatileSize) {
+        return metatileSize*metatileSize+1;
+    }
+    
+    /**
+     * Get the metatile records.
+     * @return A copy of all the metatile records.
+     */
+    public byte[] getMetatiles() {
+        byte[] data = new byte[metatileCount*getMetatileRecordSize()];
+        read(metatileOffset, data);
+        return data;
+    }
+    
+    /**
+     * Create the metatile map of a map loaded from this file.
+     * @param map The map.
+     * @return The metatile map, empty if the file does not contain one.
+     * @throws Exception Gets thrown if the metatiles are not valid.
+     */
+    public MetatileMap createMetatileMap(WorldMap map) throws Exception {
+        if(metatileSize == 0){
+            return new MetatileMap(new MetatileSet(2), map);
+        }
+        MetatileSet set = new MetatileSet(metatileSize, getMetatiles());
+        if(layerLength == 0){
+            return new MetatileMap(set, map);
+        }
+        byte[] data = new byte[layerLength];
+        read(layerOffset, data);
+        return new MetatileMap(set, map, data);
+    }
+    
+    /**
+     * Check if a screen is stored in the file.
+     * @param i The index of the screen.
+     * @return True if the screen is not empty.
+     */
+    boolean hasScreen(int i) {
+        return index[i] != 0;
+    }
+    
+    /**
+     * Read a screen record.
+     * @param i The index of the screen.
+     * @return The chunk of the screen, or null if the screen is empty.
+     */
+    byte[] readScreen(int i) {
+        if(index[i] == 0){
+            return null;
+        }
+        byte[] data = new byte[SCREEN_RECORD_SIZE];
+        read(index[i], data);
+        return data;
+    }
+    
+    /**
+     * Get the content of a screen, in the same format as a nametable file.
+     * @param screenX The position of the screen.
+     * @param screenY The position of the screen.
+     * @return The 1 KiB nametable of the screen.
+     */
+    public byte[] getScreen(int screenX, int screenY) {
+        byte[] data = readScreen(screenY*screensX+screenX);
+        return data == null ? new byte[SCREEN_RECORD_SIZE] : data;
+    }
+    
+    private void read(int offset, byte[] data) {
+        ByteBuffer buffer = mapping.duplicate();
+        buffer.position(offset);
+        buffer.get(data);
+    }
+    
+    private void detach() {
+        // Windows can't replace a file that is mapped in memory, so the
+        // content of the file is copied before the mapping is dropped.
+        byte[] data = new byte[mapping.capacity()];
+        read(0, data);
+        mapping = ByteBuffer.wrap(data);
+    }
+    
+    private boolean recordEquals(int offset, byte[] data) {
+        for(int i=0;i<data.length;i++){
+            if(mapping.get(offset+i) != data[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Create a map that reads its screens from this file.
+     * @return The map.
+     */
+    public WorldMap createMap() {
+        return new WorldMap(this);
+    }
+    
+    /**
+     * Save a level.
+     * If the file already contains a previous version of the level, only the
+     * records that changed are appended to it. Else, or if the records that
+     * are not used anymore take more space than the others, the whole level
+     * is written to a temporary file that then replaces it.
+     * @param file The file to save the level to.
+     * @param map The map of the level. It reads its screens from the new
+     * level file afterwards.
+     * @param metatiles The metatile map of the level, or null if there is
+     * none.
+     * @return The new level file.
+     * @throws Exception Gets thrown on failure.
+     */
+    public static LevelFile save(File file, WorldMap map,
+            MetatileMap metatiles) throws Exception {
+        LevelFile current = null;
+        if(file.isFile() && isLevelFile(file)){
+            try {
+                current = open(file);
+            } catch (Exception ex) {
+                // The file is damaged, it will be rewritten.
+                current = null;
+            }
+        }
+        Writer writer = new Writer(current, map, metatiles);
+        if(writer.canAppend()){
+            writer.append(file);
+        }else{
+            writer.rewrite(file);
+        }
+        LevelFile level = open(file);
+        map.setSource(level);
+        return level;
+    }
+    
+    /**
+     * Writes a level, reusing the records of the current file when possible.
+     */
+    private static class Writer {
+        private LevelFile current;
+        private WorldMap map;
+        private byte[] metatiles;
+        private int metatileSize;
+        private byte[] layer;
+        private int[] index;
+        // The screens that have to be written.
+        private byte[][] records;
+        private int recordCount;
+        private boolean newMetatiles;
+        private boolean newLayer;
+        private long liveSize;
+        
+        public Writer(LevelFile current, WorldMap map,
+                MetatileMap metatileMap) {
+            this.current = current;
+            this.map = map;
+            metatiles = new byte[0];
+            layer = new byte[0];
+            if(metatileMap != null){
+                metatiles = metatileMap.getSet().getRecords();
+                metatileSize = metatileMap.getSet().getSize();
+                if(!metatileMap.isEmpty()){
+                    layer = metatileMap.getData();
+                }
+            }
+            int count = map.getScreensX()*map.getScreensY();
+            index = new int[count];
+            records = new byte[count][];
+            boolean sameSize = current != null
+                    && current.screensX == map.getScreensX()
+                    && current.screensY == map.getScreensY();
+            LevelFile source = map.getSource();
+            boolean sameFile = current != null && source != null
+                    && source.id == current.id
+                    && source.file.equals(current.file);
+            for(int i=0;i<count;i++){
+                if(sameFile && map.isPending(i)){
+                    // The screen was not modified and is already stored in
+                    // the file.
+                    index[i] = source.index[i];
+                }else{
+                    byte[] chunk = readChunk(i);
+                    if(chunk == null){
+                        continue;
+                    }
+                    if(sameSize && current.index[i] != 0
+                            && current.recordEquals(current.index[i],
+                            chunk)){
+                        index[i] = current.index[i];
+                    }else{
+                        records[i] = chunk;
+                        recordCount++;
+                    }
+                }
+                liveSize += SCREEN_RECORD_SIZE;
+            }
+            newMetatiles = current == null
+                    || current.metatileSize != metatileSize
+                    || current.metatileCount*current.getMetatileRecordSize()
+                    != metatiles.length
+                    || !current.recordEquals(current.metatileOffset,
+                    metatiles);
+            newLayer = current == null || current.layerLength != layer.length
+                    || !current.recordEquals(current.layerOffset, layer);
+            liveSize += HEADER_SIZE+count*4+metatiles.length+layer.length;
+        }
+        
+        private byte[] readChunk(int i) {
+            // Don't keep the screens that were not used in memory.
+            if(map.isPending(i)){
+                return map.getSource().readScreen(i);
+            }
+            return map.getChunk(i);
+        }
+        
+        public boolean canAppend() {
+            // The header of an older version is smaller, writing the current
+            // header would overwrite the first record.
+            if(current == null || current.version < VERSION){
+                return false;
+            }
+            long size = current.mapping.capacity()
+                    +(long)recordCount*SCREEN_RECORD_SIZE+index.length*4
+                    +(newMetatiles ? metatiles.length : 0)
+                    +(newLayer ? layer.length : 0);
+            return size <= Integer.MAX_VALUE && size-liveSize <= liveSize;
+        }
+        
+        public void append(File file) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE);
+            try {
+                int position = current.mapping.capacity();
+                int metatileOffset = current.metatileOffset;
+                if(newMetatiles){
+                    metatileOffset = position;
+                    position = write(channel, position,
+                            ByteBuffer.wrap(metatiles));
+                }
+                int layerOffset = current.layerOffset;
+                if(newLayer){
+                    layerOffset = position;
+                    position = write(channel, position,
+                            ByteBuffer.wrap(layer));
+                }
+                position = writeRecords(channel, position);
+                ByteBuffer header = createHeader(current.id, position,
+                        metatileOffset, layerOffset);
+                writeIndex(channel, position);
+                // The new records have to be on the disk before the header
+                // points to them.
+                channel.force(false);
+                write(channel, 0, header);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+        
+        public void rewrite(File file) throws IOException {
+            // All the records get new positions.
+            for(int i=0;i<index.length;i++){
+                if(index[i] != 0){
+                    records[i] = readChunk(i);
+                    index[i] = 0;
+                }
+            }
+            Path target = file.getAbsoluteFile().toPath();
+            Path temp = target.resolveSibling(target.getFileName()+".tmp");
+            try {
+                FileChannel channel = FileChannel.open(temp,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+                try {
+                    int position = write(channel, HEADER_SIZE,
+                            ByteBuffer.wrap(metatiles));
+                    int layerOffset = position;
+                    position = write(channel, position,
+                            ByteBuffer.wrap(layer));
+                    position = writeRecords(channel, position);
+                    ByteBuffer header = createHeader(new Random().nextLong(),
+                            position, HEADER_SIZE, layerOffset);
+                    writeIndex(channel, position);
+                    write(channel, 0, header);
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+                if(current != null){
+                    current.detach();
+                }
+                LevelFile source = map.getSource();
+                if(source != null && source.file.equals(target.toFile())){
+                    source.detach();
+                }
+                try {
+                    try {
+                        Files.move(temp, target,
+                                StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException ex) {
+                        Files.move(temp, target,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (FileSystemException ex) {
+                    // On Windows a file can't be replaced while it is
+                    // mapped, the mapping is only released once it is
+                    // garbage collected.
+                    throw new IOException("Failed to replace the file, it"
+                            + " may still be mapped or opened by another"
+                            + " program!", ex);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        
+        private int writeRecords(FileChannel channel, int position)
+                throws IOException {
+            for(int i=0;i<records.length;i++){
+                if(records[i] != null){
+                    index[i] = position;
+                    position = write(channel, position,
+                            ByteBuffer.wrap(records[i]));
+                }
+            }
+            return position;
+        }
+        
+        private void writeIndex(FileChannel channel, int position)
+                throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(index.length*4);
+            buffer.asIntBuffer().put(index);
+            write(channel, position, buffer);
+        }
+        
+        private ByteBuffer createHeader(long id, int indexOffset,
+                int metatileOffset, int layerOffset) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(id);
+            header.putInt(map.getScreensX());
+            header.putInt(map.getScreensY());
+            header.putInt(indexOffset);
+            header.putInt(metatileSize);
+            header.putInt(metatiles.length
+                    /getMetatileRecordSize(metatileSize));
+            header.putInt(metatileOffset);
+            header.putInt(layerOffset);
+            header.putInt(layer.length);
+            header.flip();
+            return header;
+        }
+        
+        private static int write(FileChannel channel, int position,
+                ByteBuffer buffer) throws IOException {
+            while(buffer.hasRemaining()){
+                position += channel.write(buffer, position);
+            }
+            return position;
+        }
+    }
+}
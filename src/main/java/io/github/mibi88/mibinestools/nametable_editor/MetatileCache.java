@@ -0,0 +1,135 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import io.github.mibi88.mibinestools.chr_editor.TileRasterizer;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Keeps the metatiles drawn at their real size, so that each metatile is only
+ * drawn once, and placing it only copies its pixels.
+ * The images are drawn again when the metatile, the tiles or the colors
+ * change.
+ * @author mibi88
+ */
+class MetatileCache {
+    private BufferedImage[] images;
+    private int[][] pixels;
+    private byte[] tiles;
+    private int[][] colors;
+    
+    /**
+     * Create an empty cache.
+     */
+    public MetatileCache() {
+        images = new BufferedImage[MetatileSet.MAX_METATILES];
+        pixels = new int[MetatileSet.MAX_METATILES][];
+    }
+    
+    /**
+     * Set the tiles used by the metatiles.
+     * @param tiles The raw CHR data of the 256 tiles, or null if there are no
+     * tiles.
+     */
+    public void setTiles(byte[] tiles) {
+        this.tiles = tiles;
+        invalidateAll();
+    }
+    
+    /**
+     * Set the colors of the 4 palettes used to draw the metatiles.
+     * @param colors The colors of the palettes.
+     */
+    public void setColors(int[][] colors) {
+        if(!Arrays.deepEquals(colors, this.colors)){
+            this.colors = colors;
+            invalidateAll();
+        }
+    }
+    
+    /**
+     * Draw a metatile again when it is used.
+     * @param index The index of the metatile.
+     */
+    public void invalidate(int index) {
+        images[index] = null;
+        pixels[index] = null;
+    }
+    
+    /**
+     * Draw all the metatiles again when they are used.
+     */
+    public void invalidateAll() {
+        Arrays.fill(images, null);
+        Arrays.fill(pixels, null);
+    }
+    
+    /**
+     * Get the image of a metatile.
+     * @param set The metatiles.
+     * @param index The index of the metatile.
+     * @return The image of the metatile at its real size.
+     */
+    public BufferedImage getImage(MetatileSet set, int index) {
+        if(images[index] == null){
+            draw(set, index);
+        }
+        return images[index];
+    }
+    
+    /**
+     * Get the pixels of a metatile.
+     * @param set The metatiles.
+     * @param index The index of the metatile.
+     * @return The pixels of the metatile, row by row.
+     */
+    public int[] getPixels(MetatileSet set, int index) {
+        if(pixels[index] == null){
+            draw(set, index);
+        }
+        return pixels[index];
+    }
+    
+    private void draw(MetatileSet set, int index) {
+        int size = set.getSize();
+        int width = size*8;
+        BufferedImage image = new BufferedImage(width, width,
+                BufferedImage.TYPE_INT_RGB);
+        int[] out = TileRasterizer.getPixels(image);
+        for(int y=0;y<size;y++){
+            for(int x=0;x<size;x++){
+                int pos = y*8*width+x*8;
+                if(tiles != null && colors != null){
+                    TileRasterizer.drawTile(tiles, set.getTile(index, x, y)*16,
+                            colors[set.getPalette(index, x, y)], out, pos,
+                            width, 1);
+                }else{
+                    // There are no tiles to draw.
+                    for(int j=0;j<8;j++){
+                        Arrays.fill(out, pos+j*width, pos+j*width+8,
+                                Color.BLACK.getRGB());
+                    }
+                }
+            }
+        }
+        images[index] = image;
+        pixels[index] = out;
+    }
+}
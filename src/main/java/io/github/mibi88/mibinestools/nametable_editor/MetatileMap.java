@@ -0,0 +1,255 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The metatiles placed on a map.
+ * The map is divided in cells of the size of a metatile. A cell contains the
+ * index of a metatile, or nothing if its tiles were placed one by one. The
+ * tiles and the palettes of a metatile are still written in the map by
+ * apply, the cells only record which metatile was placed, so that the cells
+ * can be updated when the metatile is modified and be saved in the level
+ * file.
+ * @author mibi88
+ */
+public class MetatileMap {
+    private MetatileSet set;
+    private int width, height;
+    private byte[] cells;
+    private BitSet used;
+    // The metatile the cells modified since the journal was started had
+    // before, by index of the cell.
+    private HashMap<Integer, Integer> journal;
+    
+    /**
+     * Create an empty metatile map that covers a map.
+     * @param set The metatiles.
+     * @param map The map.
+     */
+    public MetatileMap(MetatileSet set, WorldMap map) {
+        this.set = set;
+        int size = set.getSize();
+        width = (map.getWidth()+size-1)/size;
+        height = (map.getHeight()+size-1)/size;
+        cells = new byte[width*height];
+        used = new BitSet();
+    }
+    
+    /**
+     * Load a metatile map that covers a map.
+     * @param set The metatiles.
+     * @param map The map.
+     * @param data The data returned by getData.
+     * @throws Exception Gets thrown if the data does not match the map size.
+     */
+    public MetatileMap(MetatileSet set, WorldMap map, byte[] data)
+            throws Exception {
+        this(set, map);
+        if(data.length != cells.length+(cells.length+7)/8){
+            throw new Exception("Bad metatile map size!");
+        }
+        System.arraycopy(data, 0, cells, 0, cells.length);
+        used = BitSet.valueOf(Arrays.copyOfRange(data, cells.length,
+                data.length));
+        for(int i=used.nextSetBit(0);i>=0;i=used.nextSetBit(i+1)){
+            if(i >= cells.length || (cells[i]&0xFF) >= set.getCount()){
+                throw new Exception("Bad metatile index!");
+            }
+        }
+    }
+    
+    /**
+     * Create a metatile map that covers a map, with the cells of another
+     * metatile map that are still in the map.
+     * It is used when the map is replaced by a map of another size.
+     * @param metatiles The metatile map to copy the cells from, its
+     * metatiles are used.
+     * @param map The map.
+     */
+    public MetatileMap(MetatileMap metatiles, WorldMap map) {
+        this(metatiles.set, map);
+        for(int i=metatiles.used.nextSetBit(0);i>=0;
+                i=metatiles.used.nextSetBit(i+1)){
+            int x = i%metatiles.width, y = i/metatiles.width;
+            if(x < width && y < height){
+                used.set(y*width+x);
+                cells[y*width+x] = metatiles.cells[i];
+            }
+        }
+    }
+    
+    private MetatileMap(MetatileMap map) {
+        set = map.set.copy();
+        width = map.width;
+        height = map.height;
+        cells = map.cells.clone();
+        used = (BitSet)map.used.clone();
+    }
+    
+    /**
+     * Get the metatiles.
+     * @return The metatile set.
+     */
+    public MetatileSet getSet() {
+        return set;
+    }
+    
+    /**
+     * Get the width of the map in metatiles.
+     * @return The number of cells on the X axis.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Get the height of the map in metatiles.
+     * @return The number of cells on the Y axis.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Check if no metatile was placed.
+     * @return True if all the cells are empty.
+     */
+    public boolean isEmpty() {
+        return used.isEmpty();
+    }
+    
+    /**
+     * Get the metatile placed in a cell.
+     * @param x The position of the cell.
+     * @param y The position of the cell.
+     * @return The index of the metatile, or -1 if there is none.
+     */
+    public int getMetatile(int x, int y) {
+        int i = y*width+x;
+        return used.get(i) ? cells[i]&0xFF : -1;
+    }
+    
+    /**
+     * Place a metatile in a cell.
+     * @param x The position of the cell.
+     * @param y The position of the cell.
+     * @param index The index of the metatile, or -1 to empty the cell.
+     * @return True if the cell was modified.
+     */
+    public boolean setMetatile(int x, int y, int index) {
+        if(x < 0 || x >= width || y < 0 || y >= height
+                || getMetatile(x, y) == index){
+            return false;
+        }
+        int i = y*width+x;
+        if(journal != null && !journal.containsKey(i)){
+            journal.put(i, getMetatile(x, y));
+        }
+        used.set(i, index >= 0);
+        cells[i] = (byte)Math.max(index, 0);
+        return true;
+    }
+    
+    /**
+     * Start keeping the metatile of the cells before they get modified.
+     * The previous journal is dropped.
+     */
+    void startJournal() {
+        journal = new HashMap<Integer, Integer>();
+    }
+    
+    /**
+     * Stop keeping the metatile of the cells before they get modified.
+     * @return The metatile the cells modified since the journal was started
+     * had before (-1 for none), by index of the cell (y*width+x).
+     */
+    HashMap<Integer, Integer> stopJournal() {
+        HashMap<Integer, Integer> modified = journal;
+        journal = null;
+        return modified == null ? new HashMap<Integer, Integer>() : modified;
+    }
+    
+    /**
+     * Get the next cell that contains a metatile.
+     * @param index The index of the metatile.
+     * @param from The index of the cell to start searching from.
+     * @return The index of the cell (y*width+x), or -1 if there is none.
+     */
+    public int nextUse(int index, int from) {
+        for(int i=used.nextSetBit(from);i>=0;i=used.nextSetBit(i+1)){
+            if((cells[i]&0xFF) == index){
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Write the tiles and the palettes of the metatile of a cell in a map.
+     * Nothing is written if the cell is empty.
+     * @param map The map.
+     * @param x The position of the cell.
+     * @param y The position of the cell.
+     * @return True if the map was modified.
+     */
+    public boolean apply(WorldMap map, int x, int y) {
+        int index = getMetatile(x, y);
+        if(index < 0){
+            return false;
+        }
+        int size = set.getSize();
+        boolean changed = false;
+        for(int ty=0;ty<size;ty++){
+            for(int tx=0;tx<size;tx++){
+                int mapX = x*size+tx, mapY = y*size+ty;
+                if(map.contains(mapX, mapY)){
+                    changed |= map.setTile(mapX, mapY,
+                            set.getTile(index, tx, ty));
+                    changed |= map.setPalette(mapX, mapY,
+                            set.getPalette(index, tx, ty));
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * Get the content of the cells, to store them in a level file.
+     * @return The index of the metatile of each cell, followed by a bitmap of
+     * the cells that contain a metatile.
+     */
+    public byte[] getData() {
+        byte[] data = new byte[cells.length+(cells.length+7)/8];
+        System.arraycopy(cells, 0, data, 0, cells.length);
+        byte[] bitmap = used.toByteArray();
+        System.arraycopy(bitmap, 0, data, cells.length, bitmap.length);
+        return data;
+    }
+    
+    /**
+     * Copy the metatile map and its metatiles.
+     * @return The copy.
+     */
+    public MetatileMap copy() {
+        return new MetatileMap(this);
+    }
+}
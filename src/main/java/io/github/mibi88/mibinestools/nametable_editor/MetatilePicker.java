@@ -0,0 +1,214 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JToolBar;
+
+/**
+ * Displays the metatiles of a nametable editor, to choose the metatile to
+ * place with the tools.
+ * @author mibi88
+ */
+public class MetatilePicker extends JPanel {
+    private static final int COLUMNS = 8;
+    private static final String[] SIZES = {"2x2", "4x4"};
+    
+    private NametableEditor editor;
+    private int scale;
+    
+    private JToolBar tools;
+    private JButton addMetatile;
+    private JButton replaceMetatile;
+    private JLabel sizeLabel;
+    private JComboBox<String> size;
+    private boolean updating;
+    
+    private MetatileList metatileList;
+    private JScrollPane metatileListPane;
+    
+    /**
+     * Create a new metatile picker.
+     * @param editor The nametable editor to create the metatile picker for.
+     * @param scale The scale of the content.
+     */
+    public MetatilePicker(NametableEditor editor, int scale) {
+        super(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        this.editor = editor;
+        this.scale = scale;
+        
+        tools = new JToolBar();
+        tools.setFloatable(false);
+        tools.setRollover(true);
+        addMetatile = new JButton("Add selection");
+        addMetatile.setToolTipText("Add the top left corner of the selection"
+                + " as a metatile");
+        tools.add(addMetatile);
+        replaceMetatile = new JButton("Replace");
+        replaceMetatile.setToolTipText("Replace the selected metatile by the"
+                + " top left corner of the selection");
+        tools.add(replaceMetatile);
+        sizeLabel = new JLabel("Size:");
+        tools.add(sizeLabel);
+        size = new JComboBox<String>(SIZES);
+        tools.add(size);
+        
+        metatileList = new MetatileList();
+        metatileListPane = new JScrollPane(metatileList);
+        
+        c.gridx = 0;
+        c.gridy = 0;
+        c.weighty = 0;
+        c.weightx = 1;
+        c.fill = GridBagConstraints.HORIZONTAL;
+        add(tools, c);
+        c.gridx = 0;
+        c.gridy = 1;
+        c.weighty = 1;
+        c.fill = GridBagConstraints.BOTH;
+        add(metatileListPane, c);
+        addActions();
+        update();
+    }
+    
+    private void addActions() {
+        addMetatile.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                editor.addSelectedMetatile();
+            }
+        });
+        replaceMetatile.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                editor.replaceMetatile();
+            }
+        });
+        size.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(!updating){
+                    editor.setMetatileSize(size.getSelectedIndex() == 0 ?
+                            2 : 4);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Update the displayed metatiles after they changed.
+     */
+    public void update() {
+        MetatileSet set = editor.getMetatiles().getSet();
+        updating = true;
+        size.setSelectedIndex(set.getSize() == 2 ? 0 : 1);
+        updating = false;
+        int cell = getCellSize();
+        int rows = (set.getCount()+COLUMNS-1)/COLUMNS;
+        metatileList.setPreferredSize(new Dimension(COLUMNS*cell,
+                rows*cell));
+        metatileList.revalidate();
+        metatileList.repaint();
+    }
+    
+    /**
+     * Set the scale to display the metatiles at.
+     * @param scale The scale.
+     */
+    public void setScale(int scale) {
+        this.scale = scale;
+        update();
+    }
+    
+    private int getCellSize() {
+        return editor.getMetatiles().getSet().getSize()*8*scale;
+    }
+    
+    /**
+     * Draws the metatiles in a grid.
+     */
+    private class MetatileList extends JPanel {
+        
+        public MetatileList() {
+            super();
+            addMouseListener(new MouseListener() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    return;
+                }
+                
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    int cell = getCellSize();
+                    int x = e.getX()/cell, y = e.getY()/cell;
+                    int index = y*COLUMNS+x;
+                    if(x < COLUMNS && index < editor.getMetatiles().getSet()
+                            .getCount()){
+                        editor.setCurrentMetatile(index);
+                    }
+                }
+                
+                @Override
+                public void mouseReleased(MouseEvent e) {
+                    return;
+                }
+                
+                @Override
+                public void mouseEntered(MouseEvent e) {
+                    return;
+                }
+                
+                @Override
+                public void mouseExited(MouseEvent e) {
+                    return;
+                }
+            });
+        }
+        
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            int cell = getCellSize();
+            int count = editor.getMetatiles().getSet().getCount();
+            for(int i=0;i<count;i++){
+                editor.paintMetatile(g, i, i%COLUMNS*cell, i/COLUMNS*cell,
+                        cell);
+            }
+            int current = editor.getCurrentMetatile();
+            if(current >= 0){
+                g.setColor(Color.WHITE);
+                g.drawRect(current%COLUMNS*cell, current/COLUMNS*cell, cell,
+                        cell);
+            }
+        }
+    }
+}
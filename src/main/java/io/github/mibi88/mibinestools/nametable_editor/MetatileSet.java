@@ -0,0 +1,266 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The definitions of the metatiles of a level.
+ * A metatile is a block of 2*2 or 4*4 tiles. It is stored as a record
+ * containing its tiles row by row, followed by an attribute byte containing
+ * the palettes of its 2*2 tile blocks, in the same order as in an attribute
+ * table. The metatiles are deduplicated: adding a metatile that is already in
+ * the set returns the index of the existing one.
+ * @author mibi88
+ */
+public class MetatileSet {
+    /**
+     * The maximum number of metatiles, so that a metatile index fits in a
+     * byte.
+     */
+    public static final int MAX_METATILES = 256;
+    
+    private int size;
+    private ArrayList<byte[]> records;
+    // Finds the metatiles by content.
+    private HashMap<ByteBuffer, Integer> indices;
+    
+    /**
+     * Create an empty metatile set.
+     * @param size The width and height of the metatiles in tiles, 4 if it is
+     * greater than 2, else 2.
+     */
+    public MetatileSet(int size) {
+        this.size = size > 2 ? 4 : 2;
+        records = new ArrayList<byte[]>();
+        indices = new HashMap<ByteBuffer, Integer>();
+    }
+    
+    private MetatileSet(MetatileSet set) {
+        size = set.size;
+        records = new ArrayList<byte[]>();
+        indices = new HashMap<ByteBuffer, Integer>();
+        for(byte[] record : set.records){
+            append(record.clone());
+        }
+    }
+    
+    /**
+     * Create a metatile set from records.
+     * The duplicated records are kept, so the indices don't change.
+     * @param size The width and height of the metatiles in tiles (2 or 4).
+     * @param data The records of the metatiles.
+     * @throws Exception Gets thrown if the size is not supported or if the
+     * data does not contain metatiles of this size.
+     */
+    public MetatileSet(int size, byte[] data) throws Exception {
+        this(size);
+        if(size != this.size){
+            throw new Exception("Bad metatile size!");
+        }
+        int recordSize = getRecordSize();
+        if(data.length%recordSize != 0
+                || data.length/recordSize > MAX_METATILES){
+            throw new Exception("Bad metatile data!");
+        }
+        for(int i=0;i<data.length;i+=recordSize){
+            byte[] record = new byte[recordSize];
+            System.arraycopy(data, i, record, 0, recordSize);
+            append(record);
+        }
+    }
+    
+    /**
+     * Get the size of the metatiles.
+     * @return The width and height of the metatiles in tiles.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Get the number of metatiles.
+     * @return The number of metatiles.
+     */
+    public int getCount() {
+        return records.size();
+    }
+    
+    /**
+     * Get the size of a metatile record.
+     * @return The size of a record in bytes.
+     */
+    public int getRecordSize() {
+        return LevelFile.getMetatileRecordSize(size);
+    }
+    
+    /**
+     * Get the record of a metatile.
+     * @param index The index of the metatile.
+     * @return A copy of the record.
+     */
+    public byte[] getMetatile(int index) {
+        return records.get(index).clone();
+    }
+    
+    /**
+     * Get a tile of a metatile.
+     * @param index The index of the metatile.
+     * @param x The position of the tile in the metatile.
+     * @param y The position of the tile in the metatile.
+     * @return The index of the tile (0-255).
+     */
+    public int getTile(int index, int x, int y) {
+        return records.get(index)[y*size+x]&0xFF;
+    }
+    
+    /**
+     * Get the palette used to draw a tile of a metatile.
+     * @param index The index of the metatile.
+     * @param x The position of the tile in the metatile.
+     * @param y The position of the tile in the metatile.
+     * @return The palette (0-3).
+     */
+    public int getPalette(int index, int x, int y) {
+        return records.get(index)[size*size]>>getAttributeShift(x, y)&0b11;
+    }
+    
+    private static int getAttributeShift(int x, int y) {
+        return (y/2*2+x/2)*2;
+    }
+    
+    /**
+     * Create a metatile record from a part of a map.
+     * The tiles that are out of the map are set to 0.
+     * @param map The map.
+     * @param x The position of the top left tile of the metatile.
+     * @param y The position of the top left tile of the metatile.
+     * @return The record.
+     */
+    public byte[] createRecord(WorldMap map, int x, int y) {
+        byte[] record = new byte[getRecordSize()];
+        for(int ty=0;ty<size;ty++){
+            for(int tx=0;tx<size;tx++){
+                if(map.contains(x+tx, y+ty)){
+                    record[ty*size+tx] = (byte)map.getTile(x+tx, y+ty);
+                    if(tx%2 == 0 && ty%2 == 0){
+                        record[size*size] |= map.getPalette(x+tx, y+ty)
+                                <<getAttributeShift(tx, ty);
+                    }
+                }
+            }
+        }
+        return record;
+    }
+    
+    /**
+     * Find a metatile.
+     * @param record The record of the metatile.
+     * @return The index of the metatile, or -1 if it is not in the set.
+     */
+    public int find(byte[] record) {
+        Integer index = indices.get(ByteBuffer.wrap(record));
+        return index == null ? -1 : index;
+    }
+    
+    /**
+     * Add a metatile if it is not already in the set.
+     * @param record The record of the metatile.
+     * @return The index of the metatile.
+     * @throws Exception Gets thrown if the record has a bad size or if the
+     * set is full.
+     */
+    public int add(byte[] record) throws Exception {
+        if(record.length != getRecordSize()){
+            throw new Exception("Bad metatile size!");
+        }
+        int index = find(record);
+        if(index >= 0){
+            return index;
+        }
+        if(records.size() >= MAX_METATILES){
+            throw new Exception("Too many metatiles!");
+        }
+        return append(record.clone());
+    }
+    
+    private int append(byte[] record) {
+        records.add(record);
+        ByteBuffer key = ByteBuffer.wrap(record);
+        if(!indices.containsKey(key)){
+            indices.put(key, records.size()-1);
+        }
+        return records.size()-1;
+    }
+    
+    /**
+     * Modify a metatile.
+     * @param index The index of the metatile.
+     * @param record The new record of the metatile.
+     * @throws Exception Gets thrown if the record has a bad size.
+     */
+    public void setMetatile(int index, byte[] record) throws Exception {
+        if(record.length != getRecordSize()){
+            throw new Exception("Bad metatile size!");
+        }
+        byte[] old = records.get(index);
+        ByteBuffer oldKey = ByteBuffer.wrap(old);
+        Integer owner = indices.get(oldKey);
+        if(owner != null && owner == index){
+            indices.remove(oldKey);
+            // Another metatile may have the same content.
+            for(int i=0;i<records.size();i++){
+                if(i != index && oldKey.equals(ByteBuffer.wrap(
+                        records.get(i)))){
+                    indices.put(ByteBuffer.wrap(records.get(i)), i);
+                    break;
+                }
+            }
+        }
+        byte[] copy = record.clone();
+        records.set(index, copy);
+        ByteBuffer key = ByteBuffer.wrap(copy);
+        if(!indices.containsKey(key)){
+            indices.put(key, index);
+        }
+    }
+    
+    /**
+     * Get the records of all the metatiles.
+     * @return The records.
+     */
+    public byte[] getRecords() {
+        int recordSize = getRecordSize();
+        byte[] data = new byte[records.size()*recordSize];
+        for(int i=0;i<records.size();i++){
+            System.arraycopy(records.get(i), 0, data, i*recordSize,
+                    recordSize);
+        }
+        return data;
+    }
+    
+    /**
+     * Copy the metatile set.
+     * @return The copy.
+     */
+    public MetatileSet copy() {
+        return new MetatileSet(this);
+    }
+}
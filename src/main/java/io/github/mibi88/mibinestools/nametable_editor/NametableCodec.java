@@ -0,0 +1,62 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes nametables to a file format and decodes them back.
+ * A codec reads its input as a stream and writes its output as it goes, so
+ * it can be used with files as well as with data in memory. The streams are
+ * not closed by the codec.
+ * New codecs can be added with NametableCodecs.register.
+ * @author mibi88
+ */
+public interface NametableCodec {
+    /**
+     * Get the name of the codec, displayed when choosing a codec.
+     * @return The name of the codec.
+     */
+    public String getName();
+    
+    /**
+     * Get the extension of the files encoded with this codec.
+     * @return The extension, without the dot.
+     */
+    public String getExtension();
+    
+    /**
+     * Encode data.
+     * @param in The stream to read the data to encode from.
+     * @param out The stream to write the encoded data to.
+     * @throws IOException Gets thrown if the data can't be read, written or
+     * encoded.
+     */
+    public void encode(InputStream in, OutputStream out) throws IOException;
+    
+    /**
+     * Decode data.
+     * @param in The stream to read the encoded data from.
+     * @param out The stream to write the decoded data to.
+     * @throws IOException Gets thrown if the data can't be read or written, or
+     * if the encoded data is invalid.
+     */
+    public void decode(InputStream in, OutputStream out) throws IOException;
+}
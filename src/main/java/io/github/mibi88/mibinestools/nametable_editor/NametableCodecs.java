@@ -0,0 +1,95 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The codecs that can be used to save and export nametables.
+ * The uncompressed, RLE and LZSS codecs are always available, plugins can
+ * register other codecs.
+ * @author mibi88
+ */
+public class NametableCodecs {
+    private static List<NametableCodec> codecs = new ArrayList<>();
+    
+    static {
+        codecs.add(new RawCodec());
+        codecs.add(new RLECodec());
+        codecs.add(new LZSSCodec());
+    }
+    
+    /**
+     * Add a codec.
+     * A codec with the same extension as a codec that is already registered
+     * replaces it.
+     * @param codec The codec to add.
+     */
+    public static synchronized void register(NametableCodec codec) {
+        for(int i=0;i<codecs.size();i++){
+            if(codecs.get(i).getExtension()
+                    .equalsIgnoreCase(codec.getExtension())){
+                codecs.set(i, codec);
+                return;
+            }
+        }
+        codecs.add(codec);
+    }
+    
+    /**
+     * Get the registered codecs, the uncompressed codec first.
+     * @return The codecs.
+     */
+    public static synchronized NametableCodec[] getCodecs() {
+        return codecs.toArray(new NametableCodec[0]);
+    }
+    
+    /**
+     * Get the extensions of the files the codecs can decode.
+     * @return The extensions.
+     */
+    public static synchronized String[] getExtensions() {
+        String[] extensions = new String[codecs.size()];
+        for(int i=0;i<extensions.length;i++){
+            extensions[i] = codecs.get(i).getExtension();
+        }
+        return extensions;
+    }
+    
+    /**
+     * Get the codec to use with a file, from its extension.
+     * @param file The file.
+     * @return The codec, or the uncompressed codec if no codec uses the
+     * extension of the file.
+     */
+    public static synchronized NametableCodec getCodec(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if(dot >= 0){
+            String extension = name.substring(dot+1);
+            for(NametableCodec codec : codecs){
+                if(codec.getExtension().equalsIgnoreCase(extension)){
+                    return codec;
+                }
+            }
+        }
+        return codecs.get(0);
+    }
+}
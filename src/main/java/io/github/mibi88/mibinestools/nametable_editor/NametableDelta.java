@@ -0,0 +1,320 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The changes made to a map and its metatiles by an edit.
+ * The delta is built from the journals of the map and of the metatile map,
+ * so only the screens and the cells that were modified are compared.
+ * The bytes of the screens that changed are stored as runs: the position of
+ * the first byte in the map (the index of the screen times the size of a
+ * screen, plus the position of the byte in the screen), the length, and the
+ * old and new bytes. The bytes between two changed bytes that are close are
+ * stored in the same run, as a new run would take more space. The metatile
+ * cells and the metatile records that changed are stored with their old and
+ * new value.
+ * If the metatile map was replaced, for example because the size of the
+ * metatiles changed, the old and new metatile maps are stored instead.
+ * @author mibi88
+ */
+class NametableDelta {
+    // A run uses 8 bytes for its position and its length, and 2 bytes for
+    // each unchanged byte it contains.
+    private static final int MERGE_GAP = 4;
+    // An estimation of the size of the object and of its arrays.
+    private static final int OVERHEAD = 128;
+    
+    private int runCount;
+    private int[] runStarts;
+    private int[] runLengths;
+    private byte[] oldData, newData;
+    
+    private int[] cells;
+    private short[] oldCells, newCells;
+    
+    private int[] records;
+    private byte[][] oldRecords, newRecords;
+    
+    private MetatileMap oldMetatiles, newMetatiles;
+    
+    /**
+     * Find the changes made by an edit.
+     * @param map The map after the edit.
+     * @param oldScreens The journal of the map: the content the modified
+     * screens had before the edit.
+     * @param oldMetatiles The metatile map before the edit. It is kept if it
+     * was replaced, and must not be modified anymore in that case.
+     * @param oldCellMetatiles The journal of the metatile map before the
+     * edit: the metatile the modified cells had before the edit.
+     * @param oldSetRecords The records of the metatiles before the edit.
+     * @param newMetatiles The metatile map after the edit.
+     */
+    public NametableDelta(WorldMap map, TreeMap<Integer, byte[]> oldScreens,
+            MetatileMap oldMetatiles,
+            HashMap<Integer, Integer> oldCellMetatiles,
+            byte[] oldSetRecords, MetatileMap newMetatiles) {
+        cells = new int[0];
+        oldCells = new short[0];
+        newCells = new short[0];
+        records = new int[0];
+        oldRecords = new byte[0][];
+        newRecords = new byte[0][];
+        diffScreens(map, oldScreens);
+        if(oldMetatiles != newMetatiles){
+            this.oldMetatiles = oldMetatiles;
+            this.newMetatiles = newMetatiles.copy();
+            return;
+        }
+        diffCells(newMetatiles, oldCellMetatiles);
+        diffRecords(newMetatiles.getSet(), oldSetRecords);
+    }
+    
+    private void diffScreens(WorldMap map, TreeMap<Integer, byte[]> screens) {
+        ByteArrayOutputStream oldBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream newBytes = new ByteArrayOutputStream();
+        int[] starts = new int[16];
+        int[] lengths = new int[16];
+        for(Map.Entry<Integer, byte[]> entry : screens.entrySet()){
+            int i = entry.getKey();
+            byte[] oldChunk = entry.getValue();
+            byte[] newChunk = map.getChunk(i);
+            if(oldChunk == null && newChunk == null){
+                continue;
+            }
+            int offset = 0;
+            while(offset < WorldMap.SCREEN_SIZE){
+                if(get(oldChunk, offset) == get(newChunk, offset)){
+                    offset++;
+                    continue;
+                }
+                int end = offset+1;
+                for(int n=end;n<WorldMap.SCREEN_SIZE && n-end<=MERGE_GAP;
+                        n++){
+                    if(get(oldChunk, n) != get(newChunk, n)){
+                        end = n+1;
+                    }
+                }
+                if(runCount == starts.length){
+                    starts = Arrays.copyOf(starts, runCount*2);
+                    lengths = Arrays.copyOf(lengths, runCount*2);
+                }
+                starts[runCount] = i*WorldMap.SCREEN_SIZE+offset;
+                lengths[runCount] = end-offset;
+                runCount++;
+                for(int n=offset;n<end;n++){
+                    oldBytes.write(get(oldChunk, n));
+                    newBytes.write(get(newChunk, n));
+                }
+                offset = end;
+            }
+        }
+        runStarts = Arrays.copyOf(starts, runCount);
+        runLengths = Arrays.copyOf(lengths, runCount);
+        oldData = oldBytes.toByteArray();
+        newData = newBytes.toByteArray();
+    }
+    
+    private static byte get(byte[] chunk, int offset) {
+        return chunk == null ? 0 : chunk[offset];
+    }
+    
+    private void diffCells(MetatileMap metatiles,
+            HashMap<Integer, Integer> journal) {
+        int width = metatiles.getWidth();
+        int count = 0;
+        cells = new int[journal.size()];
+        oldCells = new short[journal.size()];
+        newCells = new short[journal.size()];
+        for(Map.Entry<Integer, Integer> entry : journal.entrySet()){
+            int cell = entry.getKey();
+            int metatile = metatiles.getMetatile(cell%width, cell/width);
+            if(metatile != entry.getValue()){
+                cells[count] = cell;
+                oldCells[count] = (short)(int)entry.getValue();
+                newCells[count] = (short)metatile;
+                count++;
+            }
+        }
+        cells = Arrays.copyOf(cells, count);
+        oldCells = Arrays.copyOf(oldCells, count);
+        newCells = Arrays.copyOf(newCells, count);
+    }
+    
+    private void diffRecords(MetatileSet set, byte[] oldSetRecords) {
+        // Adding a metatile is not an edit, so only the metatiles that
+        // existed before the edit are compared.
+        int recordSize = set.getRecordSize();
+        int count = Math.min(set.getCount(), oldSetRecords.length/recordSize);
+        int changed = 0;
+        records = new int[count];
+        oldRecords = new byte[count][];
+        newRecords = new byte[count][];
+        for(int i=0;i<count;i++){
+            byte[] record = set.getMetatile(i);
+            byte[] old = Arrays.copyOfRange(oldSetRecords, i*recordSize,
+                    (i+1)*recordSize);
+            if(!Arrays.equals(old, record)){
+                records[changed] = i;
+                oldRecords[changed] = old;
+                newRecords[changed] = record;
+                changed++;
+            }
+        }
+        records = Arrays.copyOf(records, changed);
+        oldRecords = Arrays.copyOf(oldRecords, changed);
+        newRecords = Arrays.copyOf(newRecords, changed);
+    }
+    
+    /**
+     * Check if the edit changed nothing.
+     * @return True if nothing changed.
+     */
+    public boolean isEmpty() {
+        return runCount == 0 && cells.length == 0 && records.length == 0
+                && oldMetatiles == null;
+    }
+    
+    /**
+     * Estimate the memory used by the changes.
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        long size = OVERHEAD+runCount*8L+oldData.length+newData.length
+                +cells.length*8L;
+        for(int i=0;i<records.length;i++){
+            size += 4+oldRecords[i].length+newRecords[i].length;
+        }
+        if(oldMetatiles != null){
+            size += getSize(oldMetatiles)+getSize(newMetatiles);
+        }
+        return size;
+    }
+    
+    private static long getSize(MetatileMap metatiles) {
+        MetatileSet set = metatiles.getSet();
+        // A byte and a bit per cell.
+        return (long)metatiles.getWidth()*metatiles.getHeight()*9/8
+                +set.getCount()*set.getRecordSize();
+    }
+    
+    /**
+     * Get the metatiles to use instead of the current ones, if the metatile
+     * map was replaced.
+     * @param undo True to get the metatiles before the edit.
+     * @return The metatiles, or null if the cells should be used.
+     */
+    public MetatileMap getMetatiles(boolean undo) {
+        return undo ? oldMetatiles : newMetatiles;
+    }
+    
+    /**
+     * Get the number of runs of modified bytes.
+     * @return The number of runs.
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+    
+    /**
+     * Get the position of the first byte of a run.
+     * @param run The index of the run.
+     * @return The position of the byte in the map.
+     */
+    public int getRunStart(int run) {
+        return runStarts[run];
+    }
+    
+    /**
+     * Get the number of bytes in a run.
+     * @param run The index of the run.
+     * @return The length of the run.
+     */
+    public int getRunLength(int run) {
+        return runLengths[run];
+    }
+    
+    /**
+     * Get the bytes of the runs, one run after the other, without copying
+     * them.
+     * @param undo True to get the bytes before the edit.
+     * @return The bytes.
+     */
+    public byte[] getRunData(boolean undo) {
+        return undo ? oldData : newData;
+    }
+    
+    /**
+     * Get the number of metatile cells that changed.
+     * @return The number of cells.
+     */
+    public int getCellCount() {
+        return cells.length;
+    }
+    
+    /**
+     * Get the position of a metatile cell that changed.
+     * @param i The index of the change.
+     * @return The position of the cell, y*width+x.
+     */
+    public int getCell(int i) {
+        return cells[i];
+    }
+    
+    /**
+     * Get the metatile of a cell that changed.
+     * @param i The index of the change.
+     * @param undo True to get the metatile before the edit.
+     * @return The index of the metatile, or -1 if there was none.
+     */
+    public int getCellMetatile(int i, boolean undo) {
+        return undo ? oldCells[i] : newCells[i];
+    }
+    
+    /**
+     * Get the number of metatile records that changed.
+     * @return The number of records.
+     */
+    public int getRecordCount() {
+        return records.length;
+    }
+    
+    /**
+     * Get the index of a metatile whose record changed.
+     * @param i The index of the change.
+     * @return The index of the metatile.
+     */
+    public int getRecordMetatile(int i) {
+        return records[i];
+    }
+    
+    /**
+     * Get a metatile record that changed, without copying it.
+     * @param i The index of the change.
+     * @param undo True to get the record before the edit.
+     * @return The record.
+     */
+    public byte[] getRecord(int i, boolean undo) {
+        return undo ? oldRecords[i] : newRecords[i];
+    }
+}
@@ -17,33 +17,44 @@
  */
 package io.github.mibi88.mibinestools.nametable_editor;
 
+import io.github.mibi88.mibinestools.SizedEdit;
 import javax.swing.undo.AbstractUndoableEdit;
 
 /**
- *
+ * An edit of a map in the nametable editor.
+ * Only the changes between the map before and after the edit are kept.
  * @author mibi88
  */
-public class NametableEdit extends AbstractUndoableEdit {
+public class NametableEdit extends AbstractUndoableEdit implements SizedEdit {
     private NametableEditor editor;
-    private byte[] oldAttributes, oldNametable;
-    private byte[] newAttributes, newNametable;
-
+    private NametableDelta delta;
+    
     /**
      * Create a new nametable edit.
      * @param editor The editor used.
-     * @param oldAttributes The attribute table before editing.
-     * @param oldNametable The nametable before editing.
-     * @param newAttributes The new attribute table.
-     * @param newNametable The new nametable.
+     * @param delta The changes made by the edit.
      */
-    public NametableEdit(NametableEditor editor, byte[] oldAttributes,
-            byte[] oldNametable, byte[] newAttributes, byte[] newNametable) {
+    NametableEdit(NametableEditor editor, NametableDelta delta) {
         super();
         this.editor = editor;
-        this.oldAttributes = oldAttributes.clone();
-        this.oldNametable = oldNametable.clone();
-        this.newAttributes = newAttributes.clone();
-        this.newNametable = newNametable.clone();
+        this.delta = delta;
+    }
+    
+    /**
+     * Check if the edit changed nothing.
+     * @return True if the map and the metatiles didn't change.
+     */
+    public boolean isEmpty() {
+        return delta.isEmpty();
+    }
+    
+    /**
+     * Estimate the memory used by the edit.
+     * @return The size in bytes.
+     */
+    @Override
+    public long getSize() {
+        return delta.getSize();
     }
     
     /**
@@ -52,7 +63,7 @@ public class NametableEdit extends AbstractUndoableEdit {
     @Override
     public void undo() {
         super.undo();
-        editor.setData(oldNametable, oldAttributes);
+        editor.applyDelta(delta, true);
         editor.fileEdited();
     }
     
@@ -62,7 +73,7 @@ public class NametableEdit extends AbstractUndoableEdit {
     @Override
     public void redo() {
         super.redo();
-        editor.setData(newNametable, newAttributes);
+        editor.applyDelta(delta, false);
         editor.fileEdited();
     }
 }
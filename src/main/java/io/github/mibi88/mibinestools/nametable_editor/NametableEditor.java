@@ -17,19 +17,25 @@
  */
 package io.github.mibi88.mibinestools.nametable_editor;
 
+import io.github.mibi88.mibinestools.BudgetUndoManager;
 import io.github.mibi88.mibinestools.Editor;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.palette_editor.PaletteEditor;
 import io.github.mibi88.mibinestools.Window;
 import io.github.mibi88.mibinestools.chr_editor.CHRData;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
-import javax.swing.undo.UndoManager;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  *
@@ -42,10 +48,11 @@ public class NametableEditor extends Editor {
     private JTabbedPane tilePane;
     private JSplitPane splitPane;
     private TilePicker tilePicker;
+    private MetatilePicker metatilePicker;
     private int[][] currentPalette;
     private int paletteIndex;
     private Window window;
-    private UndoManager undoManager;
+    private BudgetUndoManager undoManager;
     private byte[] clipboard;
     private int clipboardW, clipboardH;
     
@@ -55,7 +62,7 @@ public class NametableEditor extends Editor {
      */
     public NametableEditor(Window window) {
         super(window, new GridLayout(1, 4));
-        undoManager = new UndoManager();
+        undoManager = new BudgetUndoManager();
         currentPalette = new int[][]{
             {0, 0, 0},
             {79, 79, 79},
@@ -68,9 +75,11 @@ public class NametableEditor extends Editor {
                 this);
         nametablePane = new NametablePane(this);
         nametablePane.setMinimumSize(new Dimension(300, 0));
+        metatilePicker = new MetatilePicker(this, window.getScale());
         
         tilePane = new JTabbedPane();
         tilePane.addTab("Pattern Table", tilePicker);
+        tilePane.addTab("Metatiles", metatilePicker);
         tilePane.addTab("Palette Editor", paletteEditor);
         tilePane.setMinimumSize(new Dimension(250, 0));
         splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, false,
@@ -96,6 +105,7 @@ public class NametableEditor extends Editor {
         paletteIndex = i;
         if(nametablePane != null){
             nametablePane.paletteChanged();
+            metatilePicker.repaint();
         }
     }
     
@@ -121,6 +131,7 @@ public class NametableEditor extends Editor {
      */
     public void setCHR(CHRData chrData) {
         nametablePane.setCHR(chrData);
+        metatilePicker.repaint();
     }
     
     /**
@@ -129,6 +140,76 @@ public class NametableEditor extends Editor {
      */
     public void setCurrentTile(int currentTile) {
         nametablePane.setCurrentTile(currentTile);
+        metatilePicker.repaint();
+    }
+    
+    /**
+     * Set the metatile to use to edit the nametable.
+     * @param index The index of the metatile.
+     */
+    public void setCurrentMetatile(int index) {
+        nametablePane.setCurrentMetatile(index);
+        metatilePicker.repaint();
+    }
+    
+    /**
+     * Get the metatile used to edit the nametable.
+     * @return The index of the metatile, or -1 if tiles are used.
+     */
+    public int getCurrentMetatile() {
+        return nametablePane.getCurrentMetatile();
+    }
+    
+    /**
+     * Get the metatiles placed on the map.
+     * @return The metatile map.
+     */
+    public MetatileMap getMetatiles() {
+        return nametablePane.getMetatiles();
+    }
+    
+    /**
+     * Paint the image of a metatile.
+     * @param g The graphics to paint the metatile with.
+     * @param index The index of the metatile.
+     * @param x The position of the metatile.
+     * @param y The position of the metatile.
+     * @param size The size of the metatile once painted.
+     */
+    public void paintMetatile(Graphics g, int index, int x, int y,
+            int size) {
+        nametablePane.paintMetatile(g, index, x, y, size);
+    }
+    
+    /**
+     * Add the metatile at the top left corner of the selection.
+     */
+    public void addSelectedMetatile() {
+        if(nametablePane.addSelectedMetatile()){
+            fileEdited();
+        }
+        metatilePicker.update();
+    }
+    
+    /**
+     * Replace the current metatile by the metatile at the top left corner of
+     * the selection.
+     */
+    public void replaceMetatile() {
+        if(nametablePane.replaceMetatile(this)){
+            fileEdited();
+        }
+        metatilePicker.update();
+    }
+    
+    /**
+     * Set the size of the metatiles, the current metatiles are removed.
+     * @param size The width and height of the metatiles in tiles.
+     */
+    public void setMetatileSize(int size) {
+        nametablePane.setMetatileSize(this, size);
+        fileEdited();
+        metatilePicker.update();
     }
     
     /**
@@ -139,6 +220,7 @@ public class NametableEditor extends Editor {
     public void setScale(int scale) {
         nametablePane.setScale(scale);
         tilePicker.setScale(scale);
+        metatilePicker.setScale(scale);
     }
     
     /**
@@ -149,6 +231,7 @@ public class NametableEditor extends Editor {
     public boolean newFile() {
         if(super.newFile()){
             nametablePane.reset();
+            metatilePicker.update();
             undoManager.die();
             return true;
         }
@@ -165,6 +248,7 @@ public class NametableEditor extends Editor {
         if(super.openFile(file)){
             try {
                 nametablePane.open(file);
+                metatilePicker.update();
                 undoManager.die();
             } catch (IOException ex) {
                 Logger.getLogger(NametableEditor.class.getName()).log(
@@ -188,6 +272,8 @@ public class NametableEditor extends Editor {
             } catch (IOException ex) {
                 Logger.getLogger(NametableEditor.class.getName()).log(
                         Level.SEVERE, null, ex);
+                JOptionPane.showMessageDialog(this, "Failed to save the"
+                        + " nametable!\n" + ex.getMessage());
             }
         }
     }
@@ -204,6 +290,49 @@ public class NametableEditor extends Editor {
         } catch (IOException ex) {
             Logger.getLogger(NametableEditor.class.getName()).log(
                     Level.SEVERE, null, ex);
+            JOptionPane.showMessageDialog(this, "Failed to save the"
+                    + " nametable!\n" + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Ask for a file and a codec, and export the screens of the nametable.
+     */
+    public void exportScreens() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        NametableCodec[] codecs = NametableCodecs.getCodecs();
+        FileNameExtensionFilter[] filters =
+                new FileNameExtensionFilter[codecs.length];
+        for(int i=0;i<codecs.length;i++){
+            filters[i] = new FileNameExtensionFilter(codecs[i].getName(),
+                    codecs[i].getExtension());
+            fileChooser.addChoosableFileFilter(filters[i]);
+        }
+        fileChooser.setFileFilter(filters[0]);
+        int out = fileChooser.showSaveDialog(this);
+        if(out != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        NametableCodec codec = codecs[0];
+        for(int i=0;i<codecs.length;i++){
+            if(fileChooser.getFileFilter() == filters[i]){
+                codec = codecs[i];
+            }
+        }
+        File file = fileChooser.getSelectedFile();
+        if(!file.getName().toLowerCase().endsWith("."
+                +codec.getExtension().toLowerCase())){
+            file = new File(file.getParentFile(), file.getName()+"."
+                    +codec.getExtension());
+        }
+        try {
+            nametablePane.export(file, codec);
+        } catch (IOException ex) {
+            Logger.getLogger(NametableEditor.class.getName()).log(
+                    Level.SEVERE, null, ex);
+            JOptionPane.showMessageDialog(this, "Failed to export the"
+                    + " nametable!\n" + ex.getMessage());
         }
     }
     
@@ -213,6 +342,7 @@ public class NametableEditor extends Editor {
      */
     public void setCHRBank(int chrBank) {
         nametablePane.setCHRBank(chrBank);
+        metatilePicker.repaint();
     }
     
     /**
@@ -223,6 +353,24 @@ public class NametableEditor extends Editor {
         return window.getScale();
     }
     
+    /**
+     * Enable or disable the accelerated rendering.
+     * @param accelerated True if the nametable should be accelerated.
+     */
+    @Override
+    public void setAccelerated(boolean accelerated) {
+        nametablePane.setAccelerated(accelerated);
+    }
+    
+    /**
+     * Get the time spent painting the nametable.
+     * @return The paint statistics.
+     */
+    @Override
+    public PaintStats[] getPaintStats() {
+        return new PaintStats[]{nametablePane.getPaintStats()};
+    }
+    
     /**
      * Enable or disable the grid.
      * @param grid True if the grid should be drawn.
@@ -262,20 +410,51 @@ public class NametableEditor extends Editor {
     }
     
     /**
-     * Set the nametable data from arrays.
-     * @param nametable The nametable.
-     * @param attributes The attribute table.
+     * Set the map edited in this editor.
+     * @param map The map.
+     * @param metatiles The metatiles placed on the map.
+     */
+    public void setMap(WorldMap map, MetatileMap metatiles) {
+        nametablePane.setMap(map, metatiles);
+        metatilePicker.update();
+    }
+    
+    /**
+     * Apply the changes made by an edit.
+     * @param delta The changes.
+     * @param undo True to undo the edit, false to redo it.
      */
-    public void setData(byte[] nametable, byte[] attributes) {
-        nametablePane.setData(nametable, attributes);
+    void applyDelta(NametableDelta delta, boolean undo) {
+        nametablePane.applyDelta(delta, undo);
+        metatilePicker.update();
     }
     
     /**
      * Add an edit to the undoManager.
+     * The edits that changed nothing are ignored.
      * @param edit The edit to add.
      */
     public void addEdit(NametableEdit edit) {
-        undoManager.addEdit(edit);
+        if(!edit.isEmpty()){
+            undoManager.addEdit(edit);
+        }
+    }
+    
+    /**
+     * Set the maximum memory used by the undo history. The oldest edits are
+     * removed when the history uses more memory.
+     * @param budget The budget in bytes.
+     */
+    public void setUndoBudget(long budget) {
+        undoManager.setBudget(budget);
+    }
+    
+    /**
+     * Get the maximum memory used by the undo history.
+     * @return The budget in bytes.
+     */
+    public long getUndoBudget() {
+        return undoManager.getBudget();
     }
     
     /**
@@ -294,12 +473,9 @@ public class NametableEditor extends Editor {
     @Override
     public void cut() {
         copy();
-        byte[] oldNametable = nametablePane.getNametable().clone();
-        byte[] oldAttributes = nametablePane.getAttributes().clone();
+        nametablePane.beginEdit();
         nametablePane.fillSelection(0);
-        addEdit(new NametableEdit(this, oldAttributes, oldNametable,
-                nametablePane.getAttributes(),
-                nametablePane.getNametable()));
+        nametablePane.endEdit(this);
     }
     
     /**
@@ -308,13 +484,10 @@ public class NametableEditor extends Editor {
     @Override
     public void paste() {
         if(clipboard != null){
-            byte[] oldNametable = nametablePane.getNametable().clone();
-            byte[] oldAttributes = nametablePane.getAttributes().clone();
+            nametablePane.beginEdit();
             nametablePane.fillSelection(clipboard, clipboardW,
                     clipboardH);
-            addEdit(new NametableEdit(this, oldAttributes, oldNametable,
-                    nametablePane.getAttributes(),
-                    nametablePane.getNametable()));
+            nametablePane.endEdit(this);
         }
     }
     
@@ -331,6 +504,10 @@ public class NametableEditor extends Editor {
      * @return The file extension.
      */
     public static String[] getExtension() {
-        return new String[]{"nam"};
+        String[] codecExtensions = NametableCodecs.getExtensions();
+        String[] extensions = Arrays.copyOf(codecExtensions,
+                codecExtensions.length+1);
+        extensions[codecExtensions.length] = LevelFile.EXTENSION;
+        return extensions;
     }
 }
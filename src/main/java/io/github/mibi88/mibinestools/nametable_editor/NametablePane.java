@@ -19,11 +19,13 @@ package io.github.mibi88.mibinestools.nametable_editor;
 
 import io.github.mibi88.mibinestools.DrawEvent;
 import io.github.mibi88.mibinestools.Line;
+import io.github.mibi88.mibinestools.PaintStats;
 import io.github.mibi88.mibinestools.Rectangle;
 import io.github.mibi88.mibinestools.Tool;
 import io.github.mibi88.mibinestools.chr_editor.CHRData;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Graphics;
 import java.io.File;
 import java.io.IOException;
 import javax.swing.JPanel;
@@ -38,8 +40,10 @@ public class NametablePane extends JPanel {
     private JScrollPane nametableViewerPane;
     private NametableToolbar nametableToolbar;
     
-    private byte[] oldAttributes;
-    private byte[] oldNametable;
+    // The state before the current edit, the map and the metatile map keep
+    // a journal of what the edit modifies.
+    private MetatileMap oldMetatiles;
+    private byte[] oldRecords;
     
     private Line overlayLine;
     private Line renderLine;
@@ -56,7 +60,7 @@ public class NametablePane extends JPanel {
         super(new GridBagLayout());
         GridBagConstraints c = new GridBagConstraints();
         
-        nametableToolbar = new NametableToolbar();
+        nametableToolbar = new NametableToolbar(editor);
         nametableViewer = new NametableViewer(editor.getCHRData(),
                 editor.getPaletteEditor(), editor.getScale(),
                 true);
@@ -78,8 +82,9 @@ public class NametablePane extends JPanel {
         nametableViewer.setEventHandler(new NametableViewerEvent() {
             @Override
             public void beforeChange(int tx, int ty) {
-                oldNametable = nametableViewer.getNametable().clone();
-                oldAttributes = nametableViewer.getAttributes().clone();
+                if(getCurrentTool() != Tool.SELECTION){
+                    beginEdit();
+                }
                 startX = tx;
                 startY = ty;
                 nametableViewer.clearOverlay();
@@ -118,7 +123,6 @@ public class NametablePane extends JPanel {
                             nametableViewer.clearOverlay();
                             overlayLine.drawLine(startX, startY,
                                     tx, ty);
-                            nametableViewer.repaint();
                         }
                         break;
                     case RECTANGLE:
@@ -130,13 +134,12 @@ public class NametablePane extends JPanel {
                             nametableViewer.clearOverlay();
                             overlayRectangle.drawRectangle(startX, startY,
                                     tx, ty);
-                            nametableViewer.repaint();
                         }
                         break;
                 }
                 if(getCurrentTool() != Tool.SELECTION){
                     if(end){
-                        addEdit(editor);
+                        endEdit(editor);
                     }
                     editor.fileEdited();
                 }
@@ -164,10 +167,40 @@ public class NametablePane extends JPanel {
         renderRectangle = new Rectangle(renderEvent);
     }
     
-    private void addEdit(NametableEditor editor) {
-        editor.addEdit(new NametableEdit(editor, oldAttributes, oldNametable,
-                nametableViewer.getAttributes(),
-                nametableViewer.getNametable()));
+    /**
+     * Start recording the changes made by an edit.
+     * Only the screens and the metatile cells that get modified are copied.
+     */
+    void beginEdit() {
+        oldMetatiles = nametableViewer.getMetatiles();
+        oldRecords = oldMetatiles.getSet().getRecords();
+        nametableViewer.getMap().startJournal();
+        oldMetatiles.startJournal();
+    }
+    
+    /**
+     * Stop recording the changes made by an edit and add it to an editor.
+     * @param editor The editor to add the edit to.
+     */
+    void endEdit(NametableEditor editor) {
+        if(oldMetatiles == null){
+            return;
+        }
+        WorldMap map = nametableViewer.getMap();
+        editor.addEdit(new NametableEdit(editor, new NametableDelta(map,
+                map.stopJournal(), oldMetatiles, oldMetatiles.stopJournal(),
+                oldRecords, nametableViewer.getMetatiles())));
+        oldMetatiles = null;
+        oldRecords = null;
+    }
+    
+    /**
+     * Apply the changes made by an edit to the nametable.
+     * @param delta The changes.
+     * @param undo True to undo the edit, false to redo it.
+     */
+    void applyDelta(NametableDelta delta, boolean undo) {
+        nametableViewer.applyDelta(delta, undo);
     }
     
     /**
@@ -204,6 +237,16 @@ public class NametablePane extends JPanel {
         nametableViewer.save(file);
     }
     
+    /**
+     * Export the screens of the nametable.
+     * @param file The file to export the nametable to.
+     * @param codec The codec to encode the screens with.
+     * @throws IOException Gets thrown on failure.
+     */
+    public void export(File file, NametableCodec codec) throws IOException {
+        nametableViewer.export(file, codec);
+    }
+    
     /**
      * Set the CHR data to use.
      * @param chrData The CHR data to use.
@@ -245,12 +288,11 @@ public class NametablePane extends JPanel {
     }
     
     /**
-     * Load a nametable from byte arrays.
-     * @param nametable The nametable.
-     * @param attributes The attribute table.
+     * Set the map edited in this pane.
+     * @param map The map.
      */
-    public void setData(byte[] nametable, byte[] attributes) {
-        nametableViewer.setData(nametable, attributes);
+    public void setMap(WorldMap map, MetatileMap metatiles) {
+        nametableViewer.setMap(map, metatiles);
     }
     
     /**
@@ -296,19 +338,115 @@ public class NametablePane extends JPanel {
     }
     
     /**
-     * Get the nametable data.
-     * @return The nametable data.
+     * Get the map edited in this pane.
+     * @return The map.
+     */
+    public WorldMap getMap() {
+        return nametableViewer.getMap();
+    }
+    
+    /**
+     * Get the metatiles placed on the map.
+     * @return The metatile map.
+     */
+    public MetatileMap getMetatiles() {
+        return nametableViewer.getMetatiles();
+    }
+    
+    /**
+     * Place a metatile instead of a tile with the tools.
+     * @param index The index of the metatile.
+     */
+    public void setCurrentMetatile(int index) {
+        nametableViewer.setCurrentMetatile(index);
+    }
+    
+    /**
+     * Get the metatile placed by the tools.
+     * @return The index of the metatile, or -1 if tiles are placed.
+     */
+    public int getCurrentMetatile() {
+        return nametableViewer.getCurrentMetatile();
+    }
+    
+    /**
+     * Paint the image of a metatile.
+     * @param g The graphics to paint the metatile with.
+     * @param index The index of the metatile.
+     * @param x The position of the metatile.
+     * @param y The position of the metatile.
+     * @param size The size of the metatile once painted.
+     */
+    public void paintMetatile(Graphics g, int index, int x, int y,
+            int size) {
+        nametableViewer.paintMetatile(g, index, x, y, size);
+    }
+    
+    /**
+     * Add the metatile at the top left corner of the selection, and place it
+     * with the tools.
+     * @return True if a metatile was selected.
+     */
+    public boolean addSelectedMetatile() {
+        byte[] record = nametableViewer.getSelectedMetatile();
+        if(record == null){
+            return false;
+        }
+        int index = nametableViewer.addMetatile(record);
+        if(index >= 0){
+            nametableViewer.setCurrentMetatile(index);
+        }
+        return index >= 0;
+    }
+    
+    /**
+     * Replace the current metatile by the metatile at the top left corner of
+     * the selection. All the places where it is used get updated.
+     * @param editor The editor to add the edit to.
+     * @return True if the metatile was modified.
+     */
+    public boolean replaceMetatile(NametableEditor editor) {
+        byte[] record = nametableViewer.getSelectedMetatile();
+        int index = nametableViewer.getCurrentMetatile();
+        if(record == null || index < 0){
+            return false;
+        }
+        beginEdit();
+        nametableViewer.setMetatile(index, record);
+        endEdit(editor);
+        return true;
+    }
+    
+    /**
+     * Set the size of the metatiles, the current metatiles are removed.
+     * @param editor The editor to add the edit to.
+     * @param size The width and height of the metatiles in tiles.
+     */
+    public void setMetatileSize(NametableEditor editor, int size) {
+        if(size == nametableViewer.getMetatiles().getSet().getSize()){
+            return;
+        }
+        beginEdit();
+        WorldMap map = nametableViewer.getMap();
+        nametableViewer.setMap(map, new MetatileMap(new MetatileSet(size),
+                map));
+        endEdit(editor);
+    }
+    
+    /**
+     * Enable or disable the accelerated rendering of the nametable.
+     * @param accelerated True if the nametable should be accelerated.
      */
-    public byte[] getNametable() {
-        return nametableViewer.getNametable();
+    public void setAccelerated(boolean accelerated) {
+        nametableViewer.setAccelerated(accelerated);
     }
     
     /**
-     * Get the attribute table.
-     * @return The attribute table data.
+     * Get the time spent painting the nametable.
+     * @return The paint statistics of the nametable.
      */
-    public byte[] getAttributes() {
-        return nametableViewer.getAttributes();
+    public PaintStats getPaintStats() {
+        return nametableViewer.getPaintStats();
     }
     
     /**
@@ -27,6 +27,7 @@ import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 
@@ -41,16 +42,20 @@ public class NametableToolbar extends JToolBar {
     private JToggleButton rectangle;
     private JToggleButton line;
     private ButtonGroup buttonGroup;
+    private JButton export;
     private Tool currentTool;
+    private NametableEditor editor;
 
     /**
      * Create the toolbar.
+     * @param editor The nametable editor to create the toolbar for.
      */
-    public NametableToolbar() {
+    public NametableToolbar(NametableEditor editor) {
         super("Tools", JToolBar.VERTICAL);
         setFloatable(false);
         setRollover(true);
         
+        this.editor = editor;
         currentTool = Tool.SELECTION;
         selection = new JToggleButton(getIcon("selection.png"));
         selection.setToolTipText("Selection");
@@ -73,6 +78,10 @@ public class NametableToolbar extends JToolBar {
         add(pen);
         add(rectangle);
         add(line);
+        addSeparator();
+        export = new JButton("Export");
+        export.setToolTipText("Export the screens with a compression codec");
+        add(export);
         selection.setSelected(true);
         addActions();
     }
@@ -108,6 +117,12 @@ public class NametableToolbar extends JToolBar {
                 currentTool = Tool.LINE;
             }
         });
+        export.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                editor.exportScreens();
+            }
+        });
     }
     
     private ImageIcon getIcon(String image) {
@@ -17,20 +17,38 @@
  */
 package io.github.mibi88.mibinestools.nametable_editor;
 
+import io.github.mibi88.mibinestools.AcceleratedBuffer;
+import io.github.mibi88.mibinestools.GridLayer;
+import io.github.mibi88.mibinestools.PaintStats;
+import io.github.mibi88.mibinestools.RenderEvent;
 import io.github.mibi88.mibinestools.palette_editor.PaletteEditor;
+import io.github.mibi88.mibinestools.chr_editor.CHRChange;
 import io.github.mibi88.mibinestools.chr_editor.CHRData;
+import io.github.mibi88.mibinestools.chr_editor.CHRDataEvent;
+import io.github.mibi88.mibinestools.chr_editor.TileRasterizer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JPanel;
@@ -40,17 +58,42 @@ import javax.swing.JPanel;
  * @author mibi88
  */
 public class NametableViewer extends JPanel {
+    private static final Color OVERLAY_COLOR = new Color(255, 255, 255, 127);
+    // The maximum number of screens kept drawn, enough for a large viewport.
+    private static final int MAX_FRAMES = 64;
+    // The key of the frame shared by all the empty screens.
+    private static final int EMPTY_FRAME = -1;
     private CHRData chrData;
     private PaletteEditor paletteEditor;
     private int scale;
     private boolean grid;
     private NametableViewerEvent event;
-    private byte[] tiles;
-    private byte[] attributes;
-    private byte currentTile;
+    private WorldMap map;
+    private MetatileMap metatiles;
+    private MetatileCache metatileCache;
+    private boolean metatileTilesLoaded;
+    // The metatile placed by the tools, or -1 to place tiles.
+    private int currentMetatile;
+    private int currentTile;
     private int chrBank;
     private int selectX, selectY, selectW, selectH;
-    private boolean[] overlay;
+    private BitSet overlay;
+    private CHRDataEvent chrEvent;
+    // The screens that were drawn at their real size, they are kept between
+    // the repaints and only the tiles that changed are drawn again in them.
+    // The screens that were not visible for a long time are dropped.
+    private LinkedHashMap<Integer, ScreenFrame> frames;
+    // The colors of the 4 palettes used to draw the frame.
+    private int[][] frameColors;
+    // The tiles that need to be repainted and the tiles covered by the
+    // overlay, empty when their width is 0.
+    private Rectangle damage;
+    private Rectangle overlayBounds;
+    private boolean deferRepaint;
+    private AcceleratedBuffer buffer;
+    private GridLayer gridLayer;
+    private PaintStats paintStats;
+    private int tilesDrawn;
 
     /**
      * Create a nametable viewer.
@@ -67,13 +110,34 @@ public class NametableViewer extends JPanel {
         this.paletteEditor = paletteEditor;
         this.scale = scale;
         this.grid = grid;
-        currentTile = Byte.MIN_VALUE;
+        damage = new Rectangle();
+        overlayBounds = new Rectangle();
+        paintStats = new PaintStats("Nametable");
+        gridLayer = new GridLayer(Color.GRAY);
+        overlay = new BitSet();
+        metatileCache = new MetatileCache();
+        currentMetatile = -1;
+        frames = new LinkedHashMap<Integer, ScreenFrame>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, ScreenFrame> eldest) {
+                return size() > MAX_FRAMES;
+            }
+        };
+        buffer = new AcceleratedBuffer(this, new RenderEvent() {
+            @Override
+            public void render(Graphics g) {
+                drawContent(g);
+            }
+        });
+        chrEvent = new CHRDataEvent() {
+            @Override
+            public void tilesChanged(CHRChange change) {
+                repaintTiles(change);
+            }
+        };
+        chrData.addEventHandler(chrEvent);
         reset();
-        Arrays.fill(tiles, Byte.MIN_VALUE);
-        Dimension size = new Dimension(scale*8*32+16,
-                scale*8*30+16);
-        setPreferredSize(size);
-        repaint();
         handleMouse();
     }
     
@@ -81,9 +145,200 @@ public class NametableViewer extends JPanel {
      * Reset the nametable viewer.
      */
     public void reset() {
-        tiles = new byte[32*30];
-        overlay = new boolean[32*30];
-        attributes = new byte[64];
+        WorldMap newMap = new WorldMap(1, 1);
+        setMap(newMap, new MetatileMap(new MetatileSet(2), newMap));
+    }
+    
+    /**
+     * Set the map displayed and edited in this viewer, keeping the current
+     * metatiles and the cells that are still in the new map.
+     * @param map The map.
+     */
+    public void setMap(WorldMap map) {
+        setMap(map, new MetatileMap(metatiles, map));
+    }
+    
+    /**
+     * Set the map displayed and edited in this viewer.
+     * @param map The map.
+     * @param metatiles The metatiles placed on the map.
+     */
+    public void setMap(WorldMap map, MetatileMap metatiles) {
+        if(this.metatiles == null
+                || metatiles.getSet() != this.metatiles.getSet()){
+            metatileCache.invalidateAll();
+            if(currentMetatile >= metatiles.getSet().getCount()){
+                currentMetatile = -1;
+            }
+        }
+        this.metatiles = metatiles;
+        boolean resized = this.map == null
+                || map.getWidth() != this.map.getWidth()
+                || map.getHeight() != this.map.getHeight();
+        this.map = map;
+        overlay.clear();
+        overlayBounds.setBounds(0, 0, 0, 0);
+        frames.clear();
+        if(resized){
+            setSelection(selectX, selectY, selectX+selectW, selectY+selectH);
+            updateSize();
+            revalidate();
+        }
+        repaint();
+    }
+    
+    /**
+     * Apply the changes made by an edit to the map.
+     * Only the tiles that changed are drawn again.
+     * @param delta The changes.
+     * @param undo True to go back to the state before the edit, false to
+     * apply the edit again.
+     */
+    void applyDelta(NametableDelta delta, boolean undo) {
+        deferRepaint = true;
+        byte[] data = delta.getRunData(undo);
+        int offset = 0;
+        for(int r=0;r<delta.getRunCount();r++){
+            int start = delta.getRunStart(r);
+            int length = delta.getRunLength(r);
+            for(int i=0;i<length;i++){
+                setByte(start+i, data[offset+i]);
+            }
+            offset += length;
+        }
+        int width = metatiles.getWidth();
+        for(int i=0;i<delta.getCellCount();i++){
+            metatiles.setMetatile(delta.getCell(i)%width,
+                    delta.getCell(i)/width, delta.getCellMetatile(i, undo));
+        }
+        for(int i=0;i<delta.getRecordCount();i++){
+            // The tiles of the cells that use the metatile were restored by
+            // the runs.
+            int index = delta.getRecordMetatile(i);
+            try {
+                metatiles.getSet().setMetatile(index,
+                        delta.getRecord(i, undo));
+            } catch (Exception ex) {
+                Logger.getLogger(NametableViewer.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            }
+            metatileCache.invalidate(index);
+        }
+        deferRepaint = false;
+        repaintDamage();
+        if(delta.getMetatiles(undo) != null){
+            setMap(map, delta.getMetatiles(undo).copy());
+        }
+    }
+    
+    private void setByte(int position, byte value) {
+        int screen = position/WorldMap.SCREEN_SIZE;
+        int offset = position%WorldMap.SCREEN_SIZE;
+        if(!map.setByte(screen, offset, value)){
+            return;
+        }
+        int screenX = screen%map.getScreensX()*WorldMap.SCREEN_WIDTH;
+        int screenY = screen/map.getScreensX()*WorldMap.SCREEN_HEIGHT;
+        if(offset < WorldMap.ATTRIBUTES){
+            invalidateTile(screenX+offset%WorldMap.SCREEN_WIDTH,
+                    screenY+offset/WorldMap.SCREEN_WIDTH);
+            return;
+        }
+        // An attribute byte contains the palettes of 4*4 tiles.
+        int x = (offset-WorldMap.ATTRIBUTES)%8*4;
+        int y = (offset-WorldMap.ATTRIBUTES)/8*4;
+        for(int ty=y;ty<Math.min(y+4, WorldMap.SCREEN_HEIGHT);ty++){
+            for(int tx=x;tx<x+4;tx++){
+                invalidateTile(screenX+tx, screenY+ty);
+            }
+        }
+    }
+    
+    /**
+     * Get the map displayed and edited in this viewer.
+     * @return The map.
+     */
+    public WorldMap getMap() {
+        return map;
+    }
+    
+    /**
+     * Get the metatiles placed on the map.
+     * @return The metatile map.
+     */
+    public MetatileMap getMetatiles() {
+        return metatiles;
+    }
+    
+    private int getFrameKey(int screenX, int screenY) {
+        if(map.isEmpty(screenX, screenY)){
+            return EMPTY_FRAME;
+        }
+        return screenY*map.getScreensX()+screenX;
+    }
+    
+    private ScreenFrame getFrame(int screenX, int screenY) {
+        int key = getFrameKey(screenX, screenY);
+        ScreenFrame frame = frames.get(key);
+        if(frame == null){
+            frame = new ScreenFrame();
+            frames.put(key, frame);
+        }
+        return frame;
+    }
+    
+    private byte[] getFrameChunk(int key) {
+        if(key == EMPTY_FRAME){
+            return null;
+        }
+        return map.getChunk(key%map.getScreensX(), key/map.getScreensX());
+    }
+    
+    private void invalidateTile(int x, int y) {
+        // The screens that are not drawn will be drawn entirely when they get
+        // visible.
+        ScreenFrame frame = frames.get(getFrameKey(x/WorldMap.SCREEN_WIDTH,
+                y/WorldMap.SCREEN_HEIGHT));
+        if(frame != null){
+            frame.stale.set(y%WorldMap.SCREEN_HEIGHT*WorldMap.SCREEN_WIDTH
+                    +x%WorldMap.SCREEN_WIDTH);
+        }
+        addDamage(new Rectangle(x, y, 1, 1));
+    }
+    
+    private static void addTile(Rectangle rect, int x, int y) {
+        if(rect.width == 0){
+            rect.setBounds(x, y, 1, 1);
+        }else{
+            rect.add(new Rectangle(x, y, 1, 1));
+        }
+    }
+    
+    private void addDamage(Rectangle rect) {
+        if(rect.width != 0){
+            if(damage.width == 0){
+                damage.setBounds(rect);
+            }else{
+                damage.add(rect);
+            }
+        }
+        if(!deferRepaint){
+            repaintDamage();
+        }
+    }
+    
+    private void repaintDamage() {
+        if(damage.width != 0){
+            // The extra pixel includes the grid lines.
+            repaint(damage.x*8*scale, damage.y*8*scale,
+                    damage.width*8*scale+1, damage.height*8*scale+1);
+            damage.setBounds(0, 0, 0, 0);
+        }
+    }
+    
+    private void invalidateAll() {
+        frames.clear();
+        repaint();
     }
     
     /**
@@ -91,8 +346,52 @@ public class NametableViewer extends JPanel {
      * @param chrData The CHR data to use.
      */
     public void setCHR(CHRData chrData) {
+        this.chrData.removeEventHandler(chrEvent);
         this.chrData = chrData;
-        repaint();
+        chrData.addEventHandler(chrEvent);
+        metatileTilesLoaded = false;
+        invalidateAll();
+    }
+    
+    private void repaintTiles(CHRChange change) {
+        int first = chrBank*256;
+        if(!change.intersects(first, first+255)){
+            return;
+        }
+        metatileTilesLoaded = false;
+        // Only look at the screens that are drawn, and only repaint the area
+        // that contains the changed tiles.
+        Rectangle area = new Rectangle();
+        boolean emptyChanged = false;
+        for(Map.Entry<Integer, ScreenFrame> entry : frames.entrySet()){
+            int key = entry.getKey();
+            byte[] chunk = getFrameChunk(key);
+            BitSet stale = entry.getValue().stale;
+            for(int y=0;y<WorldMap.SCREEN_HEIGHT;y++){
+                for(int x=0;x<WorldMap.SCREEN_WIDTH;x++){
+                    int tile = first+WorldMap.getTile(chunk, x, y);
+                    if(tile >= change.getFirstTile()
+                            && tile <= change.getLastTile()){
+                        stale.set(y*WorldMap.SCREEN_WIDTH+x);
+                        if(key == EMPTY_FRAME){
+                            emptyChanged = true;
+                        }else{
+                            addTile(area, key%map.getScreensX()
+                                    *WorldMap.SCREEN_WIDTH+x,
+                                    key/map.getScreensX()
+                                    *WorldMap.SCREEN_HEIGHT+y);
+                        }
+                    }
+                }
+            }
+        }
+        if(emptyChanged){
+            // The empty screens may be anywhere.
+            repaint();
+        }else if(area.width != 0){
+            repaint(area.x*8*scale, area.y*8*scale, area.width*8*scale+1,
+                    area.height*8*scale+1);
+        }
     }
     
     /**
@@ -110,12 +409,16 @@ public class NametableViewer extends JPanel {
      */
     public void setScale(int scale) {
         this.scale = scale;
-        Dimension size = new Dimension(scale*8*32+16,
-                scale*8*30+16);
-        setPreferredSize(size);
+        updateSize();
         repaint();
     }
     
+    private void updateSize() {
+        Dimension size = new Dimension(scale*8*map.getWidth()+16,
+                scale*8*map.getHeight()+16);
+        setPreferredSize(size);
+    }
+    
     /**
      * Set the selection
      * @param selectX1 The selection starting position.
@@ -125,57 +428,134 @@ public class NametableViewer extends JPanel {
      */
     public void setSelection(int selectX1, int selectY1, int selectX2,
             int selectY2) {
-        selectX1 = Math.max(0, Math.min(selectX1, 32));
-        selectY1 = Math.max(0, Math.min(selectY1, 30));
-        selectX2 = Math.max(0, Math.min(selectX2, 32));
-        selectY2 = Math.max(0, Math.min(selectY2, 30));
+        // Only repaint the old and the new selection.
+        repaintSelection();
+        selectX1 = Math.max(0, Math.min(selectX1, map.getWidth()));
+        selectY1 = Math.max(0, Math.min(selectY1, map.getHeight()));
+        selectX2 = Math.max(0, Math.min(selectX2, map.getWidth()));
+        selectY2 = Math.max(0, Math.min(selectY2, map.getHeight()));
         selectX = Math.min(selectX1, selectX2);
         selectY = Math.min(selectY1, selectY2);
         selectW = Math.max(selectX1, selectX2)-selectX;
         selectH = Math.max(selectY1, selectY2)-selectY;
-        repaint();
+        repaintSelection();
+    }
+    
+    private void repaintSelection() {
+        if(selectW != 0 && selectH != 0){
+            // The extra pixel includes the right and bottom borders.
+            repaint(selectX*8*scale, selectY*8*scale, selectW*8*scale+1,
+                    selectH*8*scale+1);
+        }
     }
     
     /**
-     * Save the nametable.
+     * Save the map.
+     * The whole map is saved if the file is a level file, else the map is
+     * saved as a nametable, with the codec that uses the extension of the
+     * file. A map of more than one screen can only be saved as a level file,
+     * or exported.
      * @param file The file to save the nametable to.
-     * @throws IOException Gets thrown on failure.
+     * @throws IOException Gets thrown on failure, or if the map has more than
+     * one screen and the file is not a level file.
      */
     public void save(File file) throws IOException {
-        FileOutputStream fileStream = new FileOutputStream(file);
-        byte[] fixedTiles = tiles.clone();
-        for(int i=0;i<fixedTiles.length;i++){
-            fixedTiles[i] += Byte.MIN_VALUE;
+        if(file.getName().endsWith("."+LevelFile.EXTENSION)){
+            try {
+                LevelFile.save(file, map, metatiles);
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            return;
         }
-        fileStream.write(fixedTiles);
-        fileStream.write(attributes);
-        fileStream.close();
+        if(map.getScreensX() != 1 || map.getScreensY() != 1){
+            throw new IOException("The map has more than one screen, save it"
+                    + " as a level file or export its screens!");
+        }
+        saveScreen(file, 0, 0, NametableCodecs.getCodec(file));
     }
     
     /**
-     * Load a nametable from a file.
-     * @param file The file to load the nametable from.
+     * Export the screens of the map as nametables.
+     * If the map has more than one screen, the position of each screen is
+     * added to the name of its file, and the empty screens are skipped.
+     * @param file The file to export the nametable to.
+     * @param codec The codec to encode the nametables with.
      * @throws IOException Gets thrown on failure.
      */
-    public void open(File file) throws IOException {
-        FileInputStream fileStream = new FileInputStream(file);
-        fileStream.read(tiles);
-        for(int i=0;i<tiles.length;i++){
-            tiles[i] -= Byte.MIN_VALUE;
+    public void export(File file, NametableCodec codec) throws IOException {
+        if(map.getScreensX() == 1 && map.getScreensY() == 1){
+            saveScreen(file, 0, 0, codec);
+            return;
+        }
+        String name = file.getName();
+        String extension = "";
+        int dot = name.lastIndexOf('.');
+        if(dot > 0){
+            extension = name.substring(dot);
+            name = name.substring(0, dot);
+        }
+        for(int y=0;y<map.getScreensY();y++){
+            for(int x=0;x<map.getScreensX();x++){
+                if(!map.isEmpty(x, y)){
+                    saveScreen(new File(file.getParentFile(),
+                            name+"_"+x+"_"+y+extension), x, y, codec);
+                }
+            }
+        }
+    }
+    
+    private void saveScreen(File file, int screenX, int screenY,
+            NametableCodec codec) throws IOException {
+        OutputStream fileStream = new BufferedOutputStream(
+                new FileOutputStream(file));
+        try {
+            codec.encode(new ByteArrayInputStream(map.getScreen(screenX,
+                    screenY)), fileStream);
+        } finally {
+            fileStream.close();
         }
-        fileStream.read(attributes);
-        fileStream.close();
     }
     
     /**
-     * Set the content of the nametable viewer from byte arrays.
-     * @param nametable The nametable data.
-     * @param attributes The attribute table.
+     * Load a level file, or a nametable as a map of a single screen.
+     * The nametable is decoded with the codec that uses the extension of the
+     * file.
+     * @param file The file to load the nametable from.
+     * @throws IOException Gets thrown on failure.
      */
-    public void setData(byte[] nametable, byte[] attributes) {
-        tiles = nametable;
-        this.attributes = attributes;
-        repaint();
+    public void open(File file) throws IOException {
+        if(LevelFile.isLevelFile(file)){
+            try {
+                LevelFile level = LevelFile.open(file);
+                WorldMap newMap = level.createMap();
+                setMap(newMap, level.createMetatileMap(newMap));
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            return;
+        }
+        InputStream fileStream = new BufferedInputStream(
+                new FileInputStream(file));
+        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        try {
+            NametableCodecs.getCodec(file).decode(fileStream, dataStream);
+        } finally {
+            fileStream.close();
+        }
+        byte[] data = Arrays.copyOf(dataStream.toByteArray(),
+                WorldMap.SCREEN_SIZE);
+        WorldMap newMap = new WorldMap(1, 1);
+        try {
+            newMap.setScreen(0, 0, data);
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+        setMap(newMap);
     }
     
     /**
@@ -191,32 +571,174 @@ public class NametableViewer extends JPanel {
      * @param currentTile The number of the current tile.
      */
     public void setCurrentTile(int currentTile) {
-        this.currentTile = (byte)(currentTile-Byte.MIN_VALUE);
+        this.currentTile = currentTile&0xFF;
+        currentMetatile = -1;
     }
     
     /**
-     * Set the CHR bank to use to display this nametable.
-     * @param chrBank The CHR bank to use.
+     * Place a metatile instead of a tile with the tools.
+     * @param currentMetatile The index of the metatile.
      */
-    public void setCHRBank(int chrBank) {
-        this.chrBank = chrBank;
-        repaint();
+    public void setCurrentMetatile(int currentMetatile) {
+        this.currentMetatile = currentMetatile;
+    }
+    
+    /**
+     * Get the metatile placed by the tools.
+     * @return The index of the metatile, or -1 if tiles are placed.
+     */
+    public int getCurrentMetatile() {
+        return currentMetatile;
     }
     
     /**
-     * Get the nametable data.
-     * @return The nametable data.
+     * Create a metatile from the top left corner of the selection.
+     * @return The record of the metatile, or null if there is no selection.
      */
-    public byte[] getNametable() {
-        return tiles;
+    public byte[] getSelectedMetatile() {
+        if(selectW == 0 || selectH == 0){
+            return null;
+        }
+        return metatiles.getSet().createRecord(map, selectX, selectY);
     }
     
     /**
-     * Get the attribute table.
-     * @return The attribute table.
+     * Add a metatile if it does not exist yet.
+     * @param record The record of the metatile.
+     * @return The index of the metatile, or -1 if there are too many
+     * metatiles.
      */
-    public byte[] getAttributes() {
-        return attributes;
+    public int addMetatile(byte[] record) {
+        try {
+            return metatiles.getSet().add(record);
+        } catch (Exception ex) {
+            Logger.getLogger(NametableViewer.class.getName()).log(
+                    Level.SEVERE, null, ex);
+            return -1;
+        }
+    }
+    
+    /**
+     * Modify a metatile, all the places where it is used get updated.
+     * @param index The index of the metatile.
+     * @param record The new record of the metatile.
+     */
+    public void setMetatile(int index, byte[] record) {
+        try {
+            metatiles.getSet().setMetatile(index, record);
+        } catch (Exception ex) {
+            Logger.getLogger(NametableViewer.class.getName()).log(
+                    Level.SEVERE, null, ex);
+            return;
+        }
+        metatileCache.invalidate(index);
+        deferRepaint = true;
+        int width = metatiles.getWidth();
+        for(int i=metatiles.nextUse(index, 0);i>=0;
+                i=metatiles.nextUse(index, i+1)){
+            applyMetatile(i%width, i/width);
+        }
+        deferRepaint = false;
+        repaintDamage();
+    }
+    
+    /**
+     * Paint the image of a metatile.
+     * @param g The graphics to paint the metatile with.
+     * @param index The index of the metatile.
+     * @param x The position of the metatile.
+     * @param y The position of the metatile.
+     * @param size The size of the metatile once painted.
+     */
+    public void paintMetatile(Graphics g, int index, int x, int y,
+            int size) {
+        updateMetatileCache();
+        g.drawImage(metatileCache.getImage(metatiles.getSet(), index), x, y,
+                size, size, null);
+    }
+    
+    private boolean updateMetatileCache() {
+        if(frameColors == null){
+            updateColors();
+        }
+        if(frameColors == null){
+            return false;
+        }
+        if(!metatileTilesLoaded){
+            metatileCache.setTiles(getRawTiles());
+            metatileTilesLoaded = true;
+        }
+        metatileCache.setColors(frameColors);
+        return true;
+    }
+    
+    private void placeMetatile(int tileX, int tileY) {
+        int size = metatiles.getSet().getSize();
+        metatiles.setMetatile(tileX/size, tileY/size, currentMetatile);
+        applyMetatile(tileX/size, tileY/size);
+    }
+    
+    private void applyMetatile(int cellX, int cellY) {
+        if(!metatiles.apply(map, cellX, cellY)){
+            return;
+        }
+        // Copy the image of the metatile in the screens that are drawn
+        // instead of drawing its tiles one by one.
+        MetatileSet set = metatiles.getSet();
+        int size = set.getSize();
+        int[] pixels = null;
+        if(updateMetatileCache()){
+            pixels = metatileCache.getPixels(set,
+                    metatiles.getMetatile(cellX, cellY));
+        }
+        for(int ty=0;ty<size;ty++){
+            for(int tx=0;tx<size;tx++){
+                int x = cellX*size+tx, y = cellY*size+ty;
+                if(!map.contains(x, y)){
+                    continue;
+                }
+                ScreenFrame frame = frames.get(getFrameKey(
+                        x/WorldMap.SCREEN_WIDTH, y/WorldMap.SCREEN_HEIGHT));
+                if(frame != null){
+                    int i = y%WorldMap.SCREEN_HEIGHT*WorldMap.SCREEN_WIDTH
+                            +x%WorldMap.SCREEN_WIDTH;
+                    if(pixels != null){
+                        copyTile(pixels, (ty*8*size+tx)*8, size*8,
+                                frame.pixels, (y%WorldMap.SCREEN_HEIGHT*8
+                                *WorldMap.SCREEN_WIDTH+x
+                                %WorldMap.SCREEN_WIDTH)*8);
+                        frame.stale.clear(i);
+                    }else{
+                        frame.stale.set(i);
+                    }
+                }
+            }
+        }
+        addDamage(new Rectangle(cellX*size, cellY*size, size, size));
+    }
+    
+    private static void copyTile(int[] src, int srcOffset, int srcStride,
+            int[] dst, int dstOffset) {
+        for(int y=0;y<8;y++){
+            System.arraycopy(src, srcOffset+y*srcStride, dst,
+                    dstOffset+y*WorldMap.SCREEN_WIDTH*8, 8);
+        }
+    }
+    
+    private void detachMetatile(int tileX, int tileY) {
+        // The tiles of the cell don't come from a metatile anymore.
+        int size = metatiles.getSet().getSize();
+        metatiles.setMetatile(tileX/size, tileY/size, -1);
+    }
+    
+    /**
+     * Set the CHR bank to use to display this nametable.
+     * @param chrBank The CHR bank to use.
+     */
+    public void setCHRBank(int chrBank) {
+        this.chrBank = chrBank;
+        metatileTilesLoaded = false;
+        invalidateAll();
     }
     
     /**
@@ -228,7 +750,8 @@ public class NametableViewer extends JPanel {
             byte[] data = new byte[selectW*selectH];
             for(int y=0;y<selectH;y++){
                 for(int x=0;x<selectW;x++){
-                    data[y*selectW+x] = tiles[(selectY+y)*32+(selectX+x)];
+                    data[y*selectW+x] = (byte)map.getTile(selectX+x,
+                            selectY+y);
                 }
             }
             return data;
@@ -241,13 +764,17 @@ public class NametableViewer extends JPanel {
      * @param tile The tile to fill the selection with.
      */
     public void fillSelection(int tile) {
+        deferRepaint = true;
         for(int y=0;y<selectH;y++){
             for(int x=0;x<selectW;x++){
-                tiles[(selectY+y)*32+(selectX+x)] =
-                        (byte)(tile-Byte.MIN_VALUE);
+                if(map.setTile(selectX+x, selectY+y, tile)){
+                    detachMetatile(selectX+x, selectY+y);
+                    invalidateTile(selectX+x, selectY+y);
+                }
             }
         }
-        repaint();
+        deferRepaint = false;
+        repaintDamage();
     }
     
     /**
@@ -257,12 +784,17 @@ public class NametableViewer extends JPanel {
      * @param h The height of the area.
      */
     public void fillSelection(byte[] data, int w, int h) {
+        deferRepaint = true;
         for(int y=0;y<Math.min(selectH, h);y++){
             for(int x=0;x<Math.min(selectW, w);x++){
-                tiles[(selectY+y)*32+(selectX+x)] = data[y*w+x];
+                if(map.setTile(selectX+x, selectY+y, data[y*w+x])){
+                    detachMetatile(selectX+x, selectY+y);
+                    invalidateTile(selectX+x, selectY+y);
+                }
             }
         }
-        repaint();
+        deferRepaint = false;
+        repaintDamage();
     }
     
     /**
@@ -327,13 +859,20 @@ public class NametableViewer extends JPanel {
     }
     
     /**
-     * Set a tile of the nametable
+     * Set a tile of the nametable, or place the current metatile at this
+     * position.
      * @param tileX The position of the tile.
      * @param tileY The position of the tile.
      */
     public void setTile(int tileX, int tileY) {
-        if(tileX >= 0 && tileX < 32 && tileY >= 0 && tileY < 30){
-            tiles[tileY*32+tileX] = currentTile;
+        if(!map.contains(tileX, tileY)){
+            return;
+        }
+        if(currentMetatile >= 0){
+            placeMetatile(tileX, tileY);
+        }else if(map.setTile(tileX, tileY, currentTile)){
+            detachMetatile(tileX, tileY);
+            invalidateTile(tileX, tileY);
         }
     }
     
@@ -346,12 +885,16 @@ public class NametableViewer extends JPanel {
      * @param palette The index of the palette to use.
      */
     public void setPalette(int tileX, int tileY, int palette) {
-        if(tileX >= 0 && tileX < 32 && tileY >= 0 && tileY < 30){
-            palette &= 0b00000011;
-            int attrPos = (tileY/4)*8+(tileX/4);
-            int pos = (tileY/2%2)*2+(tileX/2%2);
-            attributes[attrPos] &= ~(0b11<<pos*2);
-            attributes[attrPos] |= palette<<pos*2;
+        if(map.contains(tileX, tileY)
+                && map.setPalette(tileX, tileY, palette)){
+            detachMetatile(tileX, tileY);
+            // The palette is used by a block of 2*2 tiles.
+            for(int y=tileY&~1;y<Math.min((tileY|1)+1, map.getHeight());
+                    y++){
+                for(int x=tileX&~1;x<(tileX|1)+1;x++){
+                    invalidateTile(x, y);
+                }
+            }
         }
     }
     
@@ -359,9 +902,15 @@ public class NametableViewer extends JPanel {
         int tileX = e.getX()/(scale*8);
         int tileY = e.getY()/(scale*8);
         if(event != null){
-            event.tileChanged(tileX, tileY, end);
+            // Repaint all the tiles changed by the tool at once.
+            deferRepaint = true;
+            try {
+                event.tileChanged(tileX, tileY, end);
+            } finally {
+                deferRepaint = false;
+            }
+            repaintDamage();
         }
-        repaint();
     }
     
     /**
@@ -371,8 +920,10 @@ public class NametableViewer extends JPanel {
      * @param value If the pixel should be on or off.
      */
     public void setOverlayPixel(int x, int y, boolean value) {
-        if(x >= 0 && x < 32 && y >= 0 && y < 30){
-            overlay[y*32+x] = value;
+        if(map.contains(x, y) && overlay.get(y*map.getWidth()+x) != value){
+            overlay.set(y*map.getWidth()+x, value);
+            addTile(overlayBounds, x, y);
+            addDamage(new Rectangle(x, y, 1, 1));
         }
     }
     
@@ -380,7 +931,121 @@ public class NametableViewer extends JPanel {
      * Turn all tiles of the overlay off.
      */
     public void clearOverlay() {
-        Arrays.fill(overlay, false);
+        overlay.clear();
+        addDamage(overlayBounds);
+        overlayBounds.setBounds(0, 0, 0, 0);
+    }
+    
+    private void updateColors() {
+        int[][] colors = new int[4][];
+        try {
+            // The first color is shared by all the palettes.
+            int background = TileRasterizer.getColors(
+                    paletteEditor.getPalette(0))[0];
+            for(int i=0;i<4;i++){
+                colors[i] = TileRasterizer.getColors(
+                        paletteEditor.getPalette(i));
+                colors[i][0] = background;
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(NametableViewer.class.getName()).log(
+                    Level.SEVERE, null, ex);
+            return;
+        }
+        // The palettes may have been edited, the tiles that use the palettes
+        // that changed have to be drawn again.
+        if(frameColors != null){
+            for(int i=0;i<4;i++){
+                if(!Arrays.equals(colors[i], frameColors[i])){
+                    invalidatePalette(i);
+                }
+            }
+        }
+        frameColors = colors;
+    }
+    
+    private void invalidatePalette(int palette) {
+        Iterator<Map.Entry<Integer, ScreenFrame>> iterator =
+                frames.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<Integer, ScreenFrame> entry = iterator.next();
+            byte[] chunk = getFrameChunk(entry.getKey());
+            for(int y=0;y<WorldMap.SCREEN_HEIGHT;y++){
+                for(int x=0;x<WorldMap.SCREEN_WIDTH;x++){
+                    if(WorldMap.getPalette(chunk, x, y) == palette){
+                        entry.getValue().stale.set(
+                                y*WorldMap.SCREEN_WIDTH+x);
+                    }
+                }
+            }
+        }
+    }
+    
+    private byte[] getRawTiles() {
+        if(chrBank >= 0 && chrBank < chrData.getChrBanks()){
+            try {
+                return chrData.getRawTiles(chrBank*256, 256);
+            } catch (Exception ex) {
+                Logger.getLogger(NametableViewer.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            }
+        }
+        return null;
+    }
+    
+    private void drawTiles(ScreenFrame frame, byte[] chunk, byte[] raw,
+            int firstX, int firstY, int lastX, int lastY) {
+        int width = WorldMap.SCREEN_WIDTH;
+        // Only draw the stale tiles that are visible, the other ones will be
+        // drawn when they get visible.
+        for(int y=firstY;y<=lastY;y++){
+            int i = frame.stale.nextSetBit(y*width+firstX);
+            while(i >= 0 && i <= y*width+lastX){
+                frame.stale.clear(i);
+                tilesDrawn++;
+                int x = i%width;
+                int pos = y*8*width*8+x*8;
+                if(raw != null){
+                    TileRasterizer.drawTile(raw,
+                            WorldMap.getTile(chunk, x, y)*16,
+                            frameColors[WorldMap.getPalette(chunk, x, y)],
+                            frame.pixels, pos, width*8, 1);
+                }else{
+                    // There are no tiles to draw.
+                    for(int j=0;j<8;j++){
+                        Arrays.fill(frame.pixels, pos+j*width*8,
+                                pos+j*width*8+8, Color.BLACK.getRGB());
+                    }
+                }
+                i = frame.stale.nextSetBit(i+1);
+            }
+        }
+    }
+    
+    /**
+     * Draw the content in an accelerated buffer or directly.
+     * @param accelerated True if the content should be drawn in a
+     * VolatileImage.
+     */
+    public void setAccelerated(boolean accelerated) {
+        buffer.setEnabled(accelerated);
+        repaint();
+    }
+    
+    /**
+     * Mark an area as modified before repainting it.
+     * @param tm The maximum time in milliseconds before the update.
+     * @param x The position of the area.
+     * @param y The position of the area.
+     * @param width The width of the area.
+     * @param height The height of the area.
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if(buffer != null){
+            buffer.invalidate(x, y, width, height);
+        }
+        super.repaint(tm, x, y, width, height);
     }
     
     /**
@@ -389,55 +1054,111 @@ public class NametableViewer extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        paintStats.begin();
+        tilesDrawn = 0;
         super.paintComponent(g);
-        for(int y=0;y<30;y++){
-            for(int x=0;x<32;x++){
-                int tile = chrBank*256+(int)tiles[y*32+x]-Byte.MIN_VALUE;
-                int attrPos = (y/4)*8+(x/4);
-                int pos = (y/2%2)*2+(x/2%2);
-                int bit1 = 1<<pos*2;
-                //System.out.println(Integer.toBinaryString(bit1|bit1<<1));
-                int palette = attributes[attrPos]&(bit1|bit1<<1);
-                palette >>= pos*2;
-                //System.out.println(palette%4);
-                try {
-                    int[][] paletteData = paletteEditor.getPalette(palette%4);
-                    paletteData[0] = paletteEditor.getPalette(0)[0];
-                    BufferedImage image = chrData.generateTileImage(
-                            tile, paletteData, scale);
-                    g.drawImage(image, x*8*scale, y*8*scale, this);
-                } catch (Exception ex) {
-                    Logger.getLogger(NametableViewer.class.getName()).log(
-                            Level.SEVERE, null, ex);
-                }
-                if(overlay[y*32+x]){
-                    g.setColor(new Color(255, 255, 255, 127));
-                    g.fillRect(x*8*scale, y*8*scale, 8*scale, 8*scale);
+        buffer.paint(g);
+        paintStats.end(tilesDrawn, g);
+    }
+    
+    /**
+     * Get the time spent painting the nametable.
+     * @return The paint statistics.
+     */
+    public PaintStats getPaintStats() {
+        return paintStats;
+    }
+    
+    private void drawScreens(Graphics g, int firstX, int firstY, int lastX,
+            int lastY) {
+        int tileSize = 8*scale;
+        int width = WorldMap.SCREEN_WIDTH, height = WorldMap.SCREEN_HEIGHT;
+        updateColors();
+        if(frameColors == null){
+            return;
+        }
+        byte[] raw = null;
+        boolean rawLoaded = false;
+        // Only the screens that are visible are drawn.
+        for(int sy=firstY/height;sy<=lastY/height;sy++){
+            for(int sx=firstX/width;sx<=lastX/width;sx++){
+                ScreenFrame frame = getFrame(sx, sy);
+                int x1 = Math.max(firstX-sx*width, 0);
+                int y1 = Math.max(firstY-sy*height, 0);
+                int x2 = Math.min(lastX-sx*width, width-1);
+                int y2 = Math.min(lastY-sy*height, height-1);
+                if(!frame.stale.isEmpty()){
+                    if(!rawLoaded){
+                        raw = getRawTiles();
+                        rawLoaded = true;
+                    }
+                    drawTiles(frame, map.getChunk(sx, sy), raw, x1, y1, x2,
+                            y2);
                 }
+                // Draw all the tiles of the screen at once, scaled with the
+                // nearest neighbor interpolation.
+                int dx = sx*width*tileSize, dy = sy*height*tileSize;
+                g.drawImage(frame.image, dx+x1*tileSize, dy+y1*tileSize,
+                        dx+(x2+1)*tileSize, dy+(y2+1)*tileSize, x1*8, y1*8,
+                        (x2+1)*8, (y2+1)*8, this);
             }
-            if(grid){
-                g.setColor(Color.GRAY);
-                g.drawLine(0, y*8*scale, 32*8*scale, y*8*scale);
+        }
+    }
+    
+    private void drawContent(Graphics g) {
+        // Only draw the tiles that are in the clip.
+        int tileSize = 8*scale;
+        int firstX = 0, firstY = 0;
+        int lastX = map.getWidth()-1, lastY = map.getHeight()-1;
+        Rectangle clip = g.getClipBounds();
+        if(clip != null){
+            firstX = Math.max(firstX, clip.x/tileSize);
+            firstY = Math.max(firstY, clip.y/tileSize);
+            lastX = Math.min(lastX, (clip.x+clip.width-1)/tileSize);
+            lastY = Math.min(lastY, (clip.y+clip.height-1)/tileSize);
+        }
+        if(firstX <= lastX && firstY <= lastY){
+            drawScreens(g, firstX, firstY, lastX, lastY);
+        }
+        if(overlayBounds.width != 0){
+            g.setColor(OVERLAY_COLOR);
+            for(int y=Math.max(firstY, overlayBounds.y);y<=Math.min(lastY,
+                    overlayBounds.y+overlayBounds.height-1);y++){
+                for(int x=firstX;x<=lastX;x++){
+                    if(overlay.get(y*map.getWidth()+x)){
+                        g.fillRect(x*tileSize, y*tileSize, tileSize,
+                                tileSize);
+                    }
+                }
             }
         }
-        g.setColor(Color.GRAY);
         if(grid){
-            for(int x=0;x<32;x++){
-                g.drawLine(x*8*scale, 0, x*8*scale, 30*8*scale);
-            }
+            gridLayer.paint(g, tileSize, firstX, firstY, lastX, lastY);
         }
         
         if(selectW != 0 && selectH != 0){
             // Show the selection
             g.setColor(Color.WHITE);
-            g.drawLine(selectX*8*scale, selectY*8*scale,
-                    (selectX+selectW)*8*scale, selectY*8*scale);
-            g.drawLine(selectX*8*scale, (selectY+selectH)*8*scale,
-                    (selectX+selectW)*8*scale, (selectY+selectH)*8*scale);
-            g.drawLine(selectX*8*scale, selectY*8*scale, selectX*8*scale,
-                    (selectY+selectH)*8*scale);
-            g.drawLine((selectX+selectW)*8*scale, selectY*8*scale,
-                    (selectX+selectW)*8*scale, (selectY+selectH)*8*scale);
+            g.drawRect(selectX*tileSize, selectY*tileSize, selectW*tileSize,
+                    selectH*tileSize);
+        }
+    }
+    
+    /**
+     * A screen of the map drawn at its real size.
+     */
+    private static class ScreenFrame {
+        private BufferedImage image;
+        private int[] pixels;
+        private BitSet stale;
+        
+        public ScreenFrame() {
+            image = new BufferedImage(WorldMap.SCREEN_WIDTH*8,
+                    WorldMap.SCREEN_HEIGHT*8, BufferedImage.TYPE_INT_RGB);
+            pixels = TileRasterizer.getPixels(image);
+            int tiles = WorldMap.SCREEN_WIDTH*WorldMap.SCREEN_HEIGHT;
+            stale = new BitSet(tiles);
+            stale.set(0, tiles);
         }
     }
 }
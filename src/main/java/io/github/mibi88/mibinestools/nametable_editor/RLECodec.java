@@ -0,0 +1,155 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the nametables with the RLE format of NES Screen Tool, that can
+ * be decompressed on the NES with the vram_unrle function of neslib.
+ * The first byte is the tag, a byte value that isn't used in the data. The
+ * other bytes are copied as they are, except the tag, that is followed by a
+ * count: the last byte is repeated count times. A count of 0 ends the data.
+ * @author mibi88
+ */
+public class RLECodec implements NametableCodec {
+    private static final int MAX_COUNT = 255;
+    private static final int BUFFER_SIZE = 256;
+    
+    /**
+     * Get the name of the codec.
+     * @return The name of the codec.
+     */
+    @Override
+    public String getName() {
+        return "RLE (NES Screen Tool)";
+    }
+    
+    /**
+     * Get the extension of the RLE compressed nametables.
+     * @return The extension.
+     */
+    @Override
+    public String getExtension() {
+        return "rle";
+    }
+    
+    /**
+     * Compress data.
+     * The whole input is read before anything is written, as the tag has to
+     * be chosen first.
+     * @param in The stream to read the data to compress from.
+     * @param out The stream to write the compressed data to.
+     * @throws IOException Gets thrown on failure, or if every byte value is
+     * used in the data.
+     */
+    @Override
+    public void encode(InputStream in, OutputStream out) throws IOException {
+        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        new RawCodec().encode(in, dataStream);
+        byte[] data = dataStream.toByteArray();
+        int tag = findTag(data);
+        out.write(tag);
+        int i = 0;
+        while(i < data.length){
+            int value = data[i];
+            int length = 1;
+            while(i+length < data.length && data[i+length] == value){
+                length++;
+            }
+            i += length;
+            out.write(value);
+            length--;
+            while(length > 0){
+                if(length == 1){
+                    // A single byte is shorter than a run.
+                    out.write(value);
+                    length--;
+                }else{
+                    int count = length < MAX_COUNT ? length : MAX_COUNT;
+                    out.write(tag);
+                    out.write(count);
+                    length -= count;
+                }
+            }
+        }
+        out.write(tag);
+        out.write(0);
+    }
+    
+    private static int findTag(byte[] data) throws IOException {
+        boolean[] used = new boolean[256];
+        for(int i=0;i<data.length;i++){
+            used[data[i]&0xFF] = true;
+        }
+        for(int i=0;i<used.length;i++){
+            if(!used[i]){
+                return i;
+            }
+        }
+        throw new IOException("No free byte value for the RLE tag!");
+    }
+    
+    /**
+     * Decompress data.
+     * @param in The stream to read the compressed data from.
+     * @param out The stream to write the decompressed data to.
+     * @throws IOException Gets thrown on failure, or if the data is invalid.
+     */
+    @Override
+    public void decode(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int size = 0;
+        int tag = read(in);
+        int last = -1;
+        while(true){
+            int value = read(in);
+            int count = 1;
+            if(value == tag){
+                count = read(in);
+                if(count == 0){
+                    out.write(buffer, 0, size);
+                    return;
+                }
+                if(last < 0){
+                    throw new IOException("Bad RLE data!");
+                }
+                value = last;
+            }
+            last = value;
+            for(int i=0;i<count;i++){
+                if(size == buffer.length){
+                    out.write(buffer);
+                    size = 0;
+                }
+                buffer[size++] = (byte)value;
+            }
+        }
+    }
+    
+    private static int read(InputStream in) throws IOException {
+        int value = in.read();
+        if(value < 0){
+            throw new IOException("Truncated RLE data!");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores the nametables uncompressed, as .nam files.
+ * @author mibi88
+ */
+public class RawCodec implements NametableCodec {
+    private static final int BUFFER_SIZE = 4096;
+    
+    /**
+     * Get the name of the codec.
+     * @return The name of the codec.
+     */
+    @Override
+    public String getName() {
+        return "Uncompressed";
+    }
+    
+    /**
+     * Get the extension of the uncompressed nametables.
+     * @return The extension.
+     */
+    @Override
+    public String getExtension() {
+        return "nam";
+    }
+    
+    /**
+     * Copy the data.
+     * @param in The stream to read the data from.
+     * @param out The stream to write the data to.
+     * @throws IOException Gets thrown on failure.
+     */
+    @Override
+    public void encode(InputStream in, OutputStream out) throws IOException {
+        copy(in, out);
+    }
+    
+    /**
+     * Copy the data.
+     * @param in The stream to read the data from.
+     * @param out The stream to write the data to.
+     * @throws IOException Gets thrown on failure.
+     */
+    @Override
+    public void decode(InputStream in, OutputStream out) throws IOException {
+        copy(in, out);
+    }
+    
+    private static void copy(InputStream in, OutputStream out)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while((read = in.read(buffer)) >= 0){
+            out.write(buffer, 0, read);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * MibiNESTools - Create NES games easily!
+ * Copyright (C) 2024  Mibi88
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package io.github.mibi88.mibinestools.nametable_editor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+
+/**
+ * A map made of multiple screens, each screen being a nametable.
+ * Each screen is stored as a 1 KiB chunk, in the same format as a nametable
+ * in the PPU memory: 32*30 tile indices followed by the 64 bytes of the
+ * attribute table. The chunks are only allocated when something is written
+ * in the screen, so the empty screens of a large map don't use any memory.
+ * An empty screen only contains tile 0 drawn with palette 0.
+ * A map loaded from a level file only reads the screens from the file when
+ * they are used for the first time.
+ * The content the screens had before being modified can be kept in a
+ * journal, so that an edit only has to store the screens it modified.
+ * @author mibi88
+ */
+public class WorldMap {
+    /**
+     * The width of a screen in tiles.
+     */
+    public static final int SCREEN_WIDTH = 32;
+    /**
+     * The height of a screen in tiles.
+     */
+    public static final int SCREEN_HEIGHT = 30;
+    /**
+     * The size of a screen in bytes.
+     */
+    public static final int SCREEN_SIZE = 1024;
+    /**
+     * The position of the attribute table in a screen.
+     */
+    public static final int ATTRIBUTES = SCREEN_WIDTH*SCREEN_HEIGHT;
+    
+    private int screensX, screensY;
+    private byte[][] screens;
+    // The level file the map was loaded from or last saved to, and the
+    // screens that are still only stored in it.
+    private LevelFile source;
+    private BitSet pending;
+    // The content the screens modified since the journal was started had
+    // before, by index of the screen. The empty screens are null.
+    private TreeMap<Integer, byte[]> journal;
+    
+    /**
+     * Create an empty map.
+     * The map contains at least one screen on each axis.
+     * @param screensX The number of screens on the X axis.
+     * @param screensY The number of screens on the Y axis.
+     */
+    public WorldMap(int screensX, int screensY) {
+        this.screensX = Math.max(1, screensX);
+        this.screensY = Math.max(1, screensY);
+        screens = new byte[this.screensX*this.screensY][];
+        pending = new BitSet();
+    }
+    
+    /**
+     * Create a map from a level file.
+     * @param source The level file.
+     */
+    WorldMap(LevelFile source) {
+        this(source.getScreensX(), source.getScreensY());
+        this.source = source;
+        for(int i=0;i<screens.length;i++){
+            if(source.hasScreen(i)){
+                pending.set(i);
+            }
+        }
+    }
+    
+    /**
+     * Get the number of screens on the X axis.
+     * @return The number of screens.
+     */
+    public int getScreensX() {
+        return screensX;
+    }
+    
+    /**
+     * Get the number of screens on the Y axis.
+     * @return The number of screens.
+     */
+    public int getScreensY() {
+        return screensY;
+    }
+    
+    /**
+     * Get the width of the map in tiles.
+     * @return The width of the map.
+     */
+    public int getWidth() {
+        return screensX*SCREEN_WIDTH;
+    }
+    
+    /**
+     * Get the height of the map in tiles.
+     * @return The height of the map.
+     */
+    public int getHeight() {
+        return screensY*SCREEN_HEIGHT;
+    }
+    
+    /**
+     * Check if a tile is in the map.
+     * @param x The position of the tile.
+     * @param y The position of the tile.
+     * @return True if the tile is in the map.
+     */
+    public boolean contains(int x, int y) {
+        return x >= 0 && x < getWidth() && y >= 0 && y < getHeight();
+    }
+    
+    /**
+     * Get the number of screens that are allocated.
+     * @return The number of screens that are in memory.
+     */
+    public int getAllocatedScreens() {
+        int count = 0;
+        for(byte[] screen : screens){
+            if(screen != null){
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Check if a screen is empty.
+     * @param screenX The position of the screen.
+     * @param screenY The position of the screen.
+     * @return True if the screen was never written to.
+     */
+    public boolean isEmpty(int screenX, int screenY) {
+        int i = screenY*screensX+screenX;
+        return screens[i] == null && !pending.get(i);
+    }
+    
+    /**
+     * Get the chunk of a screen, without copying it.
+     * @param screenX The position of the screen.
+     * @param screenY The position of the screen.
+     * @return The chunk of the screen, or null if the screen is empty.
+     */
+    byte[] getChunk(int screenX, int screenY) {
+        return getChunk(screenY*screensX+screenX);
+    }
+    
+    /**
+     * Get the chunk of a screen, without copying it.
+     * @param i The index of the screen.
+     * @return The chunk of the screen, or null if the screen is empty.
+     */
+    byte[] getChunk(int i) {
+        if(pending.get(i)){
+            screens[i] = source.readScreen(i);
+            pending.clear(i);
+        }
+        return screens[i];
+    }
+    
+    /**
+     * Check if a screen was not read from the level file yet.
+     * @param i The index of the screen.
+     * @return True if the screen is only stored in the level file.
+     */
+    boolean isPending(int i) {
+        return pending.get(i);
+    }
+    
+    /**
+     * Get the level file the map was loaded from or last saved to.
+     * @return The level file, or null if there is none.
+     */
+    LevelFile getSource() {
+        return source;
+    }
+    
+    /**
+     * Set the level file the map was saved to.
+     * The screens that were not read yet are stored at the same place in the
+     * new level file.
+     * @param source The level file.
+     */
+    void setSource(LevelFile source) {
+        this.source = source;
+    }
+    
+    /**
+     * Set a byte of the chunk of a screen.
+     * @param i The index of the screen.
+     * @param offset The position of the byte in the chunk.
+     * @param value The new value of the byte.
+     * @return True if the byte was modified.
+     */
+    boolean setByte(int i, int offset, byte value) {
+        keep(i);
+        byte[] chunk = getChunk(i);
+        if(chunk == null){
+            if(value == 0){
+                return false;
+            }
+            chunk = new byte[SCREEN_SIZE];
+            screens[i] = chunk;
+        }
+        if(chunk[offset] == value){
+            return false;
+        }
+        chunk[offset] = value;
+        return true;
+    }
+    
+    /**
+     * Start keeping the content of the screens before they get modified.
+     * The previous journal is dropped.
+     */
+    void startJournal() {
+        journal = new TreeMap<Integer, byte[]>();
+    }
+    
+    /**
+     * Stop keeping the content of the screens before they get modified.
+     * @return The content the screens modified since the journal was started
+     * had before, by index of the screen. The screens that were empty are
+     * null.
+     */
+    TreeMap<Integer, byte[]> stopJournal() {
+        TreeMap<Integer, byte[]> modified = journal;
+        journal = null;
+        return modified == null ? new TreeMap<Integer, byte[]>() : modified;
+    }
+    
+    private void keep(int i) {
+        if(journal != null && !journal.containsKey(i)){
+            byte[] chunk = getChunk(i);
+            journal.put(i, chunk == null ? null : chunk.clone());
+        }
+    }
+    
+    private byte[] getChunkForWriting(int x, int y) {
+        int i = y/SCREEN_HEIGHT*screensX+x/SCREEN_WIDTH;
+        keep(i);
+        if(getChunk(i) == null){
+            screens[i] = new byte[SCREEN_SIZE];
+        }
+        return screens[i];
+    }
+    
+    /**
+     * Get a tile.
+     * @param x The position of the tile.
+     * @param y The position of the tile.
+     * @return The index of the tile (0-255).
+     */
+    public int getTile(int x, int y) {
+        return getTile(getChunk(y/SCREEN_HEIGHT*screensX+x/SCREEN_WIDTH), x,
+                y);
+    }
+    
+    /**
+     * Get a tile of a chunk.
+     * @param chunk The chunk, or null if the screen is empty.
+     * @param x The position of the tile, only its position in the screen is
+     * used.
+     * @param y The position of the tile, only its position in the screen is
+     * used.
+     * @return The index of the tile (0-255).
+     */
+    static int getTile(byte[] chunk, int x, int y) {
+        if(chunk == null){
+            return 0;
+        }
+        return chunk[y%SCREEN_HEIGHT*SCREEN_WIDTH+x%SCREEN_WIDTH]&0xFF;
+    }
+    
+    /**
+     * Set a tile.
+     * @param x The position of the tile.
+     * @param y The position of the tile.
+     * @param tile The index of the tile (0-255).
+     * @return True if the tile was modified.
+     */
+    public boolean setTile(int x, int y, int tile) {
+        if(getTile(x, y) == (tile&0xFF)){
+            return false;
+        }
+        getChunkForWriting(x, y)[y%SCREEN_HEIGHT*SCREEN_WIDTH
+                +x%SCREEN_WIDTH] = (byte)tile;
+        return true;
+    }
+    
+    private static int getAttributePosition(int x, int y) {
+        return ATTRIBUTES+y%SCREEN_HEIGHT/4*8+x%SCREEN_WIDTH/4;
+    }
+    
+    private static int getAttributeShift(int x, int y) {
+        // The screens are 30 tiles high, so the quadrant has to be found from
+        // the position in the screen, like the attribute byte.
+        return (y%SCREEN_HEIGHT/2%2*2+x%SCREEN_WIDTH/2%2)*2;
+    }
+    
+    /**
+     * Get the palette used to draw a tile.
+     * A palette is used by a block of 2*2 tiles.
+     * @param x The position of the tile.
+     * @param y The position of the tile.
+     * @return The palette (0-3).
+     */
+    public int getPalette(int x, int y) {
+        return getPalette(getChunk(y/SCREEN_HEIGHT*screensX+x/SCREEN_WIDTH),
+                x, y);
+    }
+    
+    /**
+     * Get the palette used to draw a tile of a chunk.
+     * @param chunk The chunk, or null if the screen is empty.
+     * @param x The position of the tile, only its position in the screen is
+     * used.
+     * @param y The position of the tile, only its position in the screen is
+     * used.
+     * @return The palette (0-3).
+     */
+    static int getPalette(byte[] chunk, int x, int y) {
+        if(chunk == null){
+            return 0;
+        }
+        return chunk[getAttributePosition(x, y)]>>getAttributeShift(x, y)
+                &0b11;
+    }
+    
+    /**
+     * Set the palette used to draw a block of 2*2 tiles.
+     * @param x The position of a tile of the block.
+     * @param y The position of a tile of the block.
+     * @param palette The palette (0-3).
+     * @return True if the palette was modified.
+     */
+    public boolean setPalette(int x, int y, int palette) {
+        palette &= 0b11;
+        if(getPalette(x, y) == palette){
+            return false;
+        }
+        byte[] chunk = getChunkForWriting(x, y);
+        int pos = getAttributePosition(x, y);
+        int shift = getAttributeShift(x, y);
+        chunk[pos] = (byte)(chunk[pos]&~(0b11<<shift)|palette<<shift);
+        return true;
+    }
+    
+    /**
+     * Get the content of a screen.
+     * @param screenX The position of the screen.
+     * @param screenY The position of the screen.
+     * @return A copy of the 1 KiB chunk of the screen.
+     */
+    public byte[] getScreen(int screenX, int screenY) {
+        byte[] chunk = getChunk(screenX, screenY);
+        return chunk == null ? new byte[SCREEN_SIZE] : chunk.clone();
+    }
+    
+    /**
+     * Set the content of a screen.
+     * If the screen only contains zeros it becomes empty.
+     * @param screenX The position of the screen.
+     * @param screenY The position of the screen.
+     * @param data The 1 KiB chunk of the screen.
+     * @throws Exception Gets thrown if data does not contain a screen or if
+     * the screen is not in the map.
+     */
+    public void setScreen(int screenX, int screenY, byte[] data)
+            throws Exception {
+        if(data.length != SCREEN_SIZE){
+            throw new Exception("Bad screen size!");
+        }
+        if(screenX < 0 || screenX >= screensX || screenY < 0
+                || screenY >= screensY){
+            throw new Exception("Bad screen position!");
+        }
+        int i = screenY*screensX+screenX;
+        keep(i);
+        screens[i] = isZero(data) ? null : data.clone();
+        pending.clear(i);
+    }
+    
+    private static boolean isZero(byte[] data) {
+        for(byte b : data){
+            if(b != 0){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Free the screens that only contain zeros.
+     */
+    public void compact() {
+        for(int i=0;i<screens.length;i++){
+            if(screens[i] != null && isZero(screens[i])){
+                screens[i] = null;
+            }
+        }
+    }
+    
+    /**
+     * Copy the map.
+     * Only the screens that are allocated are copied, the copy reads the
+     * other ones from the same level file.
+     * @return The copy of the map.
+     */
+    public WorldMap copy() {
+        WorldMap map = new WorldMap(screensX, screensY);
+        map.source = source;
+        map.pending = (BitSet)pending.clone();
+        for(int i=0;i<screens.length;i++){
+            if(screens[i] != null){
+                map.screens[i] = screens[i].clone();
+            }
+        }
+        return map;
+    }
+    
+    /**
+     * Check if two maps have the same size and content.
+     * @param other The other map.
+     * @return True if the maps are equal.
+     */
+    public boolean contentEquals(WorldMap other) {
+        if(other.screensX != screensX || other.screensY != screensY){
+            return false;
+        }
+        byte[] empty = new byte[SCREEN_SIZE];
+        for(int i=0;i<screens.length;i++){
+            byte[] chunk = getChunk(i);
+            byte[] otherChunk = other.getChunk(i);
+            if(!Arrays.equals(chunk == null ? empty : chunk,
+                    otherChunk == null ? empty : otherChunk)){
+                return false;
+            }
+        }
+        return true;
+    }
+}